@@ -0,0 +1,84 @@
+package org.nlang.benchmarks;
+
+import org.nlang.lexer.Token;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Environment;
+import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.vm.Compiler;
+import org.nlang.vm.FunctionProto;
+import org.nlang.vm.VM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running representative programs on both execution engines. Programs are parsed, resolved and compiled once,
+ * so only their execution is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    private static final Map<String, String> WORKLOADS = Map.of(
+            "fib", Programs.FIB,
+            "nestedLoops", Programs.NESTED_LOOPS,
+            "listBuilding", Programs.LIST_BUILDING,
+            "fieldAccess", Programs.FIELD_ACCESS);
+
+    private static final Token RESULT = new Token(Token.TokenType.IDENTIFIER, "result", 0, 0, 0);
+
+    @Param({"fib", "nestedLoops", "listBuilding", "fieldAccess"})
+    String workload;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private Environment environment;
+    private List<ASTNode> statements;
+    private FunctionProto script;
+
+    @Setup
+    public void setUp() {
+        environment = new Environment();
+        statements = Programs.prepare(WORKLOADS.get(workload), environment);
+        if (engine.equals("vm")) {
+            script = Compiler.compile(statements);
+            return;
+        }
+        for (ASTNode statement : statements) {
+            if (statement instanceof FunctionDefinitionNode function) {
+                environment.addFunction(function);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object run() {
+        if (engine.equals("vm")) {
+            VM.execute(script, environment);
+        } else {
+            for (ASTNode statement : statements) {
+                if (!(statement instanceof FunctionDefinitionNode)) {
+                    statement.evaluate(environment);
+                }
+            }
+        }
+        return environment.getVariable(RESULT);
+    }
+}
@@ -0,0 +1,88 @@
+package org.nlang.benchmarks;
+
+import org.nlang.lexer.Lexer;
+import org.nlang.lexer.TokenBuffer;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing very long, deeply nested and expression heavy programs, the tokens are made once up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LongProgram {
+
+        @Param({"1000", "10000"})
+        int repetitions;
+
+        TokenBuffer tokens;
+
+        @Setup
+        public void setUp() {
+            tokens = new Lexer(Programs.longProgram(repetitions).stripTrailing()).tokenize();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class NestedProgram {
+
+        @Param({"100", "500"})
+        int depth;
+
+        TokenBuffer tokens;
+
+        @Setup
+        public void setUp() {
+            tokens = new Lexer(Programs.nestedProgram(depth).stripTrailing()).tokenize();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConfigurationProgram {
+
+        @Param({"1048576", "8388608"})
+        int characters;
+
+        TokenBuffer tokens;
+
+        @Setup
+        public void setUp() {
+            tokens = new Lexer(Programs.configurationProgram(characters).stripTrailing()).tokenize();
+        }
+    }
+
+    @Benchmark
+    public List<ASTNode> parseLong(LongProgram program) {
+        return new Parser(program.tokens).parse();
+    }
+
+    @Benchmark
+    public List<ASTNode> parseNested(NestedProgram program) {
+        return new Parser(program.tokens).parse();
+    }
+
+    @Benchmark
+    public List<ASTNode> parseConfiguration(ConfigurationProgram program) {
+        return new Parser(program.tokens).parse();
+    }
+}
@@ -0,0 +1,119 @@
+package org.nlang.benchmarks;
+
+import org.nlang.lexer.Lexer;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Environment;
+import org.nlang.parser.Optimizer;
+import org.nlang.parser.Parser;
+import org.nlang.parser.Resolver;
+
+import java.util.List;
+
+/**
+ * NLang sources measured by the benchmarks.
+ */
+final class Programs {
+
+    private Programs() {
+    }
+
+    /**
+     * Workloads of the interpreter benchmarks, each leaves its outcome in the global {@code result}.
+     */
+    static final String FIB = """
+            func fib(n) {
+                if (n < 2) {
+                    return n;
+                }
+                return fib(n - 1) + fib(n - 2);
+            }
+            make result = fib(20);
+            """;
+
+    static final String NESTED_LOOPS = """
+            make result = 0;
+            for 0..300 : a {
+                for 0..300 : b {
+                    result = result + a * b;
+                }
+            }
+            """;
+
+    static final String LIST_BUILDING = """
+            func build(n) {
+                make list = [];
+                for 0..n {
+                    list.add(i);
+                }
+                return list;
+            }
+            make result = len(build(100000));
+            """;
+
+    static final String FIELD_ACCESS = """
+            make result = 0;
+            for 0..100000 {
+                make point = {"x": i, "y": 2};
+                result = result + point.x * point.y;
+            }
+            """;
+
+    /**
+     * A long program of typical statements, repeated the given number of times.
+     */
+    static String longProgram(int repetitions) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < repetitions; i++) {
+            sb.append("""
+                    make value%1$d = %1$d * 2 + 1;
+                    func helper%1$d(a, b) {
+                        if (a > b) {
+                            return a - b;
+                        }
+                        return b - a;
+                    }
+                    make list%1$d = [1, 2, "three", {"key": value%1$d}];
+                    for x in list%1$d {
+                        print(x);
+                    }
+                    """.formatted(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A generated configuration script of at least the given number of characters, a flat list of settings
+     * computed by arithmetic, comparison and logical expressions.
+     */
+    static String configurationProgram(int characters) {
+        StringBuilder sb = new StringBuilder("make base = 100;\nmake scale = 1.5;\nmake enabled = true;\n");
+        for (int i = 0; sb.length() < characters; i++) {
+            sb.append("""
+                    make limit%1$d = base * scale + %1$d * (base - 4) / 2 - -%1$d;
+                    make allowed%1$d = limit%1$d > base and enabled or !(limit%1$d < %1$d * scale == false);
+                    make label%1$d = "node-" + "%1$d";
+                    make window%1$d = %1$d..%1$d + base * 2;
+                    """.formatted(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Blocks nested the given number of levels deep, the innermost one holding a deeply nested expression.
+     */
+    static String nestedProgram(int depth) {
+        return "if (true) {\n".repeat(depth)
+                + "make x = " + "(1 + ".repeat(depth) + "1" + ")".repeat(depth) + ";\n"
+                + "}\n".repeat(depth);
+    }
+
+    /**
+     * Parses, optimizes and resolves a program the way {@code Main} does before running it.
+     */
+    static List<ASTNode> prepare(String source, Environment environment) {
+        List<ASTNode> statements = Optimizer.standard(false)
+                .optimize(new Parser(new Lexer(source.stripTrailing())).parse());
+        new Resolver(environment).resolve(statements);
+        return statements;
+    }
+}
@@ -1,34 +1,53 @@
 package org.nlang;
 
 import org.nlang.err.Err;
-import org.nlang.lexer.Lexer;
-import org.nlang.lexer.Token;
+import org.nlang.err.NLangException;
 import org.nlang.parser.Environment;
-import org.nlang.parser.ASTNode;
-import org.nlang.parser.FunctionDefinitionNode;
-import org.nlang.parser.Parser;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 public class Main {
 
     private static Environment env;
 
+    /**
+     * Runs programs on the bytecode VM instead of the tree walking interpreter.
+     * Enabled with the --vm flag or the nlang.vm system property.
+     */
+    private static boolean useVm = Boolean.getBoolean("nlang.vm");
+
+    /**
+     * Strips assert statements from programs.
+     * Enabled with the --production flag or the nlang.production system property.
+     */
+    private static boolean production = Boolean.getBoolean("nlang.production");
+
     public static void main(String[] args) {
 
         env = new Environment();
-        if (args.length == 0) {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (arguments.remove("--vm")) {
+            useVm = true;
+        }
+        if (arguments.remove("--production")) {
+            production = true;
+        }
+        if (arguments.isEmpty()) {
             interactiveMode();
-        } else if (args.length == 1) {
-            String filename = args[0];
+        } else if (arguments.size() == 1) {
+            String filename = arguments.getFirst();
             fileMode(filename);
         } else {
-            System.out.println("Usage: java -jar NLang [filename.o]");
+            System.out.println("Usage: java -jar NLang [--vm] [--production] [filename.o]");
         }
     }
 
@@ -57,34 +76,35 @@ public class Main {
     }
 
     private static void fileMode(String filename) {
+        Path path = Paths.get(filename);
+        run(() -> excerptSource(path), env, () -> Program.of(ProgramCache.statements(path), env, production, useVm));
+    }
 
+    /**
+     * The file is lexed while it's read, its text is only read as a whole to show where an error is.
+     */
+    private static String excerptSource(Path path) {
         try {
-            byte[] bytes = Files.readAllBytes(Paths.get(filename));
-            processInput(new String(bytes, Charset.defaultCharset()), env);
+            return new String(Files.readAllBytes(path), Charset.defaultCharset());
         } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            return "";
         }
     }
 
     public static void processInput(String input, Environment env) {
-        try {
-
-            Err.lines = input.split("\n");
-            Lexer lexer = new Lexer(input.stripTrailing());
-            List<Token> tokens = lexer.tokenize();
-            Parser parser = new Parser(tokens);
-            List<ASTNode> statements = parser.parse();
-            for (ASTNode stmt : statements) {
-                if (stmt instanceof FunctionDefinitionNode node) {
-                    env.addFunction(node);
-                    continue;
-                }
-                stmt.evaluate(env);
-
-            }
+        run(() -> input, env, () -> Program.parse(input, env, production, useVm));
+    }
 
+    private static void run(Supplier<String> source, Environment env, Supplier<Program> program) {
+        try {
+            program.get().run(env);
+        } catch (NLangException e) {
+            Err.report(source.get(), e, System.err);
+            System.err.println("Error: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            System.err.println("Error reading file: " + e.getCause().getMessage());
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package org.nlang;
+
+import org.nlang.lexer.Lexer;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Completion;
+import org.nlang.parser.Environment;
+import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.parser.Optimizer;
+import org.nlang.parser.Parser;
+import org.nlang.parser.Resolver;
+import org.nlang.vm.Compiler;
+import org.nlang.vm.FunctionProto;
+import org.nlang.vm.VM;
+
+import java.util.List;
+
+/**
+ * Parsed and resolved program. It's not changed by running it, everything a run changes lives in the global
+ * environment it runs on, so a program can run any number of times, also on many threads at once, as long as
+ * every run gets an environment of its own.
+ */
+public final class Program {
+
+    private final List<ASTNode> statements;
+    private final FunctionProto script;
+
+    private Program(final List<ASTNode> statements, final FunctionProto script) {
+        this.statements = statements;
+        this.script = script;
+    }
+
+    /**
+     * Parses a program. Globals it uses must be declared by the program itself or already be defined in the
+     * given environment, without an environment they're only checked when the program runs.
+     *
+     * @param production strips assert statements
+     * @param vm         compiles the program to run on the bytecode VM
+     */
+    public static Program parse(final String source, final Environment globals, final boolean production,
+                                final boolean vm) {
+        final Parser parser = new Parser(new Lexer(source.stripTrailing()));
+        return of(parser.parse(), globals, production, vm);
+    }
+
+    /**
+     * Program of statements the parser produced, see {@link #parse}.
+     */
+    public static Program of(final List<ASTNode> parsed, final Environment globals, final boolean production,
+                             final boolean vm) {
+        final List<ASTNode> statements = Optimizer.standard(production).optimize(parsed);
+        new Resolver(globals).resolve(statements);
+        return new Program(statements, vm ? Compiler.compile(statements) : null);
+    }
+
+    /**
+     * Runs the program, returns the value of a {@code return} at its top level or null.
+     */
+    public Object run(final Environment env) {
+        if (script != null) {
+            return VM.execute(script, env);
+        }
+        for (ASTNode stmt : statements) {
+            if (stmt instanceof FunctionDefinitionNode node) {
+                env.addFunction(node);
+                continue;
+            }
+            if (stmt.evaluate(env) == Completion.RETURN) {
+                return env.returnValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,166 @@
+package org.nlang;
+
+import org.nlang.lexer.Lexer;
+import org.nlang.lexer.Token;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.AstCodec;
+import org.nlang.parser.Parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Parsed programs cached next to their source, {@code script.o} is cached in {@code script.nlc}. The cache
+ * starts with the SHA-256 hash of the source file and a fingerprint of the interpreter which wrote it, a cache whose
+ * source or interpreter changed since is parsed again and replaced. Set {@code -Dnlang.cache=false} to always
+ * parse.
+ */
+final class ProgramCache {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("nlang.cache", "true"));
+
+    private static final int MAGIC = 0x4E4C4300;
+    private static final int HASH_SIZE = 32;
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + HASH_SIZE;
+
+    /**
+     * Classes deciding what parsing produces and how it's stored, a cache written by other versions of them
+     * is stale.
+     */
+    private static final List<Class<?>> FORMAT_CLASSES = Stream.concat(
+            Stream.of(Token.class, Lexer.class, Parser.class), AstCodec.FORMAT_CLASSES.stream()).toList();
+
+    private static final long FINGERPRINT = fingerprint();
+
+    private ProgramCache() {
+    }
+
+    /**
+     * Parsed statements of the file, from its cache when that's up to date.
+     *
+     * @throws UncheckedIOException when the file can't be read
+     */
+    static List<ASTNode> statements(final Path file) {
+        try {
+            if (!ENABLED) {
+                return parse(file);
+            }
+            final Path cache = cacheOf(file);
+            final byte[] hash = hash(file);
+            final List<ASTNode> cached = read(cache, hash);
+            if (cached != null) {
+                return cached;
+            }
+            final List<ASTNode> statements = parse(file);
+            write(cache, hash, statements);
+            return statements;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses the file while reading it, its text is never held as a whole.
+     */
+    private static List<ASTNode> parse(final Path file) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset())) {
+            return new Parser(new Lexer(reader)).parse();
+        }
+    }
+
+    private static Path cacheOf(final Path file) {
+        final String name = file.getFileName().toString();
+        final int extension = name.lastIndexOf('.');
+        return file.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + ".nlc");
+    }
+
+    private static List<ASTNode> read(final Path cache, final byte[] hash) {
+        if (!Files.isRegularFile(cache)) {
+            return null;
+        }
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(cache));
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getLong() != FINGERPRINT
+                    || !in.slice(in.position(), hash.length).equals(ByteBuffer.wrap(hash))) {
+                return null;
+            }
+            return AstCodec.read(in.position(in.position() + hash.length));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache through a temporary file, so runs reading it at the same time never see half of it.
+     * Failing to write it only costs parsing again next time.
+     */
+    private static void write(final Path cache, final byte[] hash, final List<ASTNode> statements) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(),
+                    ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(FINGERPRINT);
+                out.write(hash);
+                AstCodec.write(statements, out);
+            }
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // the temporary file stays behind, the cache itself is untouched
+                }
+            }
+        }
+    }
+
+    private static byte[] hash(final Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                digest.update(chunk, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static long fingerprint() {
+        final CRC32 crc = new CRC32();
+        for (Class<?> type : FORMAT_CLASSES) {
+            try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+                if (in != null) {
+                    crc.update(in.readAllBytes());
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return crc.getValue();
+    }
+}
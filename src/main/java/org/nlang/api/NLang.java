@@ -0,0 +1,32 @@
+package org.nlang.api;
+
+import org.nlang.Program;
+import org.nlang.err.NLangException;
+
+/**
+ * Entry point for programs embedding NLang. A script is parsed once by {@link #compile} and can then run any
+ * number of times, also concurrently, every run getting its own globals:
+ * <pre>{@code
+ * Script rule = NLang.compile("return price * (1 - discount);");
+ * Object total = rule.run(Map.of("price", 120, "discount", 0.25)); // 90.0
+ * }</pre>
+ * Scripts run in the tree walker, or on the VM when the {@code nlang.vm} system property is set.
+ */
+public final class NLang {
+
+    private NLang() {
+    }
+
+    /**
+     * Parses a script. Globals it uses without declaring them are expected to be bound by the host when it runs.
+     *
+     * @throws ScriptError when the script doesn't parse
+     */
+    public static Script compile(final String source) {
+        try {
+            return new Script(Program.parse(source, null, false, Boolean.getBoolean("nlang.vm")));
+        } catch (NLangException e) {
+            throw new ScriptError(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.nlang.api;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code javax.script} engine running NLang scripts. The global and engine scope bindings of the context are
+ * defined as globals of the script, engine scope ones win, and the value of a top level {@code return} is the
+ * result of {@code eval}. Compiled scripts can be evaluated again without parsing them.
+ */
+public final class NLangScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    private final NLangScriptEngineFactory factory;
+
+    NLangScriptEngine(final NLangScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(final String script, final ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(final Reader reader, final ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(final String script) throws ScriptException {
+        final Script compiled;
+        try {
+            compiled = NLang.compile(script);
+        } catch (ScriptError e) {
+            throw scriptException(e, context);
+        }
+        return new CompiledScript() {
+            @Override
+            public Object eval(final ScriptContext context) throws ScriptException {
+                try {
+                    return compiled.run(bindings(context));
+                } catch (ScriptError e) {
+                    throw scriptException(e, context);
+                }
+            }
+
+            @Override
+            public ScriptEngine getEngine() {
+                return NLangScriptEngine.this;
+            }
+        };
+    }
+
+    @Override
+    public CompiledScript compile(final Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static Map<String, Object> bindings(final ScriptContext context) {
+        final Map<String, Object> bindings = new HashMap<>();
+        final Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (global != null) {
+            bindings.putAll(global);
+        }
+        final Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (engine != null) {
+            bindings.putAll(engine);
+        }
+        return bindings;
+    }
+
+    private static ScriptException scriptException(final ScriptError error, final ScriptContext context) {
+        final Object fileName = context.getAttribute(ScriptEngine.FILENAME);
+        final ScriptException exception = new ScriptException(error.reason(),
+                fileName == null ? null : fileName.toString(),
+                error.line() == 0 ? -1 : error.line(), error.column() == 0 ? -1 : error.column());
+        exception.initCause(error);
+        return exception;
+    }
+
+    private static String read(final Reader reader) throws ScriptException {
+        final StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package org.nlang.api;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Makes NLang available through {@code javax.script}, e.g. {@code new ScriptEngineManager().getEngineByName("nlang")}.
+ */
+public final class NLangScriptEngineFactory implements ScriptEngineFactory {
+
+    private static final String VERSION = "1.0";
+
+    @Override
+    public String getEngineName() {
+        return "NLang";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("o");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-nlang", "text/x-nlang");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("nlang", "NLang");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "NLang";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    /**
+     * Runs don't share state and never change the bindings they get, so the engine is {@code STATELESS}.
+     */
+    @Override
+    public Object getParameter(final String key) {
+        return switch (key) {
+            case ScriptEngine.ENGINE -> getEngineName();
+            case ScriptEngine.ENGINE_VERSION -> getEngineVersion();
+            case ScriptEngine.LANGUAGE -> getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION -> getLanguageVersion();
+            case ScriptEngine.NAME -> getNames().getFirst();
+            case "THREADING" -> "STATELESS";
+            default -> null;
+        };
+    }
+
+    @Override
+    public String getMethodCallSyntax(final String object, final String method, final String... arguments) {
+        return object + "." + method + "(" + String.join(", ", arguments) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(final String toDisplay) {
+        return "print(\"" + toDisplay + "\");";
+    }
+
+    @Override
+    public String getProgram(final String... statements) {
+        return Arrays.stream(statements).map(statement -> statement + ";").collect(Collectors.joining("\n"));
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new NLangScriptEngine(this);
+    }
+}
@@ -0,0 +1,46 @@
+package org.nlang.api;
+
+import org.nlang.Program;
+import org.nlang.err.NLangException;
+import org.nlang.lexer.Token;
+import org.nlang.parser.Environment;
+
+import java.util.Map;
+
+/**
+ * Compiled script, see {@link NLang#compile}. Runs don't share any state, so a script can run on many threads
+ * at once.
+ */
+public final class Script {
+
+    private final Program program;
+
+    Script(final Program program) {
+        this.program = program;
+    }
+
+    public Object run() {
+        return run(Map.of());
+    }
+
+    /**
+     * Runs the script with the bindings defined as globals. Host values are converted to NLang ones: numbers to
+     * doubles, strings, booleans, lists and arrays to lists, maps to objects; anything else is passed as it is.
+     *
+     * @return the value of a {@code return} at the top level of the script, or null; lists are returned as
+     * {@link java.util.List}s and objects as {@link Map}s
+     * @throws ScriptError when the script fails
+     */
+    public Object run(final Map<String, ?> bindings) {
+        final Environment env = new Environment();
+        bindings.forEach((name, value) ->
+                env.defineVariable(new Token(Token.TokenType.IDENTIFIER, name, 0, 0, 0), Values.toNLang(value)));
+        try {
+            return Values.toHost(program.run(env));
+        } catch (NLangException e) {
+            throw new ScriptError(e);
+        } catch (RuntimeException e) {
+            throw new ScriptError(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.nlang.api;
+
+import org.nlang.err.NLangException;
+
+/**
+ * Failure of a script, when it's caused by the script rather than the interpreter it points at the failing
+ * token.
+ */
+public class ScriptError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+    private final int line;
+    private final int column;
+
+    ScriptError(final NLangException cause) {
+        super(cause.getMessage(), cause);
+        this.reason = cause.reason();
+        this.line = cause.line();
+        this.column = cause.column();
+    }
+
+    ScriptError(final RuntimeException cause) {
+        super(cause.getMessage(), cause);
+        this.reason = cause.getMessage();
+        this.line = 0;
+        this.column = 0;
+    }
+
+    /**
+     * What went wrong, the message without the position.
+     */
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * Line of the error counted from 1, 0 when it's not known.
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * Column of the error counted from 1, 0 when it's not known.
+     */
+    public int column() {
+        return column;
+    }
+}
@@ -0,0 +1,64 @@
+package org.nlang.api;
+
+import org.nlang.parser.NList;
+import org.nlang.parser.NObjectInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts values passed between the host and scripts.
+ */
+final class Values {
+
+    private Values() {
+    }
+
+    static Object toNLang(final Object value) {
+        if (value instanceof Number number && !(value instanceof Double)) {
+            return number.doubleValue();
+        }
+        if (value instanceof CharSequence || value instanceof Character) {
+            return value.toString();
+        }
+        if (value instanceof Object[] array) {
+            return toNLang(Arrays.asList(array));
+        }
+        if (value instanceof Collection<?> collection) {
+            final NList list = new NList();
+            for (Object element : collection) {
+                list.add(toNLang(element));
+            }
+            return list;
+        }
+        if (value instanceof Map<?, ?> map) {
+            final NObjectInstance object = new NObjectInstance();
+            map.forEach((key, field) -> object.defineField(String.valueOf(key), toNLang(field)));
+            return object;
+        }
+        return value;
+    }
+
+    static Object toHost(final Object value) {
+        if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        if (value instanceof List<?> list) {
+            final List<Object> converted = new ArrayList<>(list.size());
+            for (Object element : list) {
+                converted.add(toHost(element));
+            }
+            return converted;
+        }
+        if (value instanceof NObjectInstance object) {
+            final Map<String, Object> converted = new LinkedHashMap<>();
+            object.fields().forEach((name, field) -> converted.put(name, toHost(field)));
+            return converted;
+        }
+        return value;
+    }
+}
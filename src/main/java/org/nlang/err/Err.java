@@ -2,30 +2,36 @@ package org.nlang.err;
 
 import org.nlang.lexer.Token;
 
+import java.io.PrintStream;
+
 public class Err {
 
-    public static String[] lines;
+    public static NLangException err(String message, Token token) {
+        return new NLangException(message, token.line, token.start + 1, token.end, true);
+    }
 
-    public static RuntimeException err(String message, Token token) {
-        int startLine = token.line - 2;
-        int finishLine = token.line;
-        if (startLine >= 0) {
-            System.err.println(lines[token.line - 2]);
-        }
-        System.err.println(lines[token.line - 1]);
-        System.err.println(" ".repeat(token.end - 1) + "^");
-        if (finishLine < lines.length) {
-            System.err.println(lines[finishLine]);
-        }
-        return new RuntimeException(String.format("%s at line %s:%s",
-                message, token.line, token.start + 1));
+    public static NLangException err(final String message, final int line,
+                                     final int columnEnd) {
+        return new NLangException(message, line, columnEnd, columnEnd, false);
     }
 
-    public static RuntimeException err(final String message, final int line,
-                                       final int columnEnd) {
-        System.err.println(lines[line - 1]);
-        System.err.println(" ".repeat(columnEnd - 1) + "^");
-        return new RuntimeException(String.format("%s at line %s:%s",
-                message, line, columnEnd));
+    /**
+     * Prints the source line of the error with a caret under the failing token, errors at a token also show
+     * the lines around it.
+     */
+    public static void report(String source, NLangException error, PrintStream out) {
+        String[] lines = source.split("\n");
+        int line = error.line();
+        if (line < 1 || line > lines.length) {
+            return;
+        }
+        if (error.surroundingLines() && line >= 2) {
+            out.println(lines[line - 2]);
+        }
+        out.println(lines[line - 1]);
+        out.println(" ".repeat(error.caret() - 1) + "^");
+        if (error.surroundingLines() && line < lines.length) {
+            out.println(lines[line]);
+        }
     }
 }
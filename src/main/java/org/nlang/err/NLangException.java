@@ -0,0 +1,55 @@
+package org.nlang.err;
+
+/**
+ * Error in a program, created by {@link Err}. It keeps where in the source it happened so the failing line can
+ * be shown by whoever runs the program, see {@link Err#report}.
+ */
+public class NLangException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+    private final int line;
+    private final int column;
+    private final int caret;
+    private final boolean surroundingLines;
+
+    NLangException(final String message, final int line, final int column, final int caret,
+                   final boolean surroundingLines) {
+        super(String.format("%s at line %s:%s", message, line, column));
+        this.reason = message;
+        this.line = line;
+        this.column = column;
+        this.caret = caret;
+        this.surroundingLines = surroundingLines;
+    }
+
+    /**
+     * What went wrong, the message without the position.
+     */
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * Line of the error, counted from 1.
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * Column of the error on its line, counted from 1.
+     */
+    public int column() {
+        return column;
+    }
+
+    int caret() {
+        return caret;
+    }
+
+    boolean surroundingLines() {
+        return surroundingLines;
+    }
+}
@@ -1,56 +1,121 @@
 package org.nlang.lexer;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
 import org.nlang.err.Err;
+import org.nlang.err.NLangException;
 import org.nlang.lexer.Token.TokenType;
 
+/**
+ * Turns source text into tokens on demand, the {@link org.nlang.parser.Parser} has them scanned into its
+ * {@link TokenBuffer} a window at a time. The source is read in chunks into a window which only keeps the text
+ * from the start of the current token on, so lexing a large file from a {@link Reader} needs memory for its
+ * longest token rather than for the whole file.
+ */
 public class Lexer {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Readable input;
+    private char[] buffer = new char[CHUNK_SIZE];
+    /** Position in the source of the first character in the buffer. */
+    private int bufferStart;
+    private int limit;
+    private boolean exhausted;
+    private final NameTable names = new NameTable();
+    /** Type and lexeme of the token scanned last, the type is null while none is found. */
+    private TokenType type;
+    private String value;
+    private boolean ended;
+    /** Error in the source after the tokens scanned last, raised when more tokens are asked for. */
+    private NLangException failure;
     private int start = 0;
     private int current = 0;
     private int line = 1;
     private int columnStart;
     private int columnEnd;
 
-    private final Map<String, TokenType> keywords = new HashMap<>();
+    public Lexer(CharSequence source) {
+        this.input = CharBuffer.wrap(source);
+    }
+
+    /**
+     * Lexer reading the source from the reader as tokens are needed, the reader isn't closed.
+     */
+    public Lexer(Reader source) {
+        this.input = source;
+    }
 
-    {
-        keywords.put("make", TokenType.MAKE);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("if", TokenType.IF);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("func", TokenType.FUNC);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("in", TokenType.IN);
-        keywords.put("out", TokenType.OUT);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("assert", TokenType.ASSERT);
-        keywords.put("or", TokenType.OR);
-        keywords.put("and", TokenType.AND);
+    /**
+     * Scans the rest of the source into a buffer, without creating a token object for each.
+     */
+    public TokenBuffer tokenize() {
+        // programs have about a token for every four characters, the whole length is only known for text
+        final int expected = input instanceof CharBuffer text ? text.remaining() / 4 : 0;
+        final TokenBuffer tokens = tokenize(Math.max(expected, 256), Integer.MAX_VALUE);
+        if (failure != null) {
+            throw failure;
+        }
+        return tokens;
     }
 
+    /**
+     * Scans at most count tokens into a new buffer with room for the given capacity.
+     *
+     * @throws UncheckedIOException when reading the source fails
+     */
+    public TokenBuffer tokenize(final int capacity, final int count) {
+        final TokenBuffer tokens = new TokenBuffer(capacity);
+        tokenize(tokens, count);
+        return tokens;
+    }
 
-    public Lexer(String source) {
-        this.source = source;
+    /**
+     * Scans at most count more tokens onto the end of the buffer, the last token of the source is
+     * {@link TokenType#EOF}. Nothing is added once it has been. An error in the source stops scanning and is
+     * raised by the next call, so a parser reaching the tokens before it reports its own errors first.
+     *
+     * @throws NLangException when the source has an error where this call starts scanning
+     * @throws UncheckedIOException when reading the source fails
+     */
+    public void tokenize(final TokenBuffer tokens, final int count) {
+        if (failure != null) {
+            throw failure;
+        }
+        for (int i = 0; i < count && !ended; i++) {
+            final boolean scanned;
+            try {
+                scanned = scan();
+            } catch (NLangException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                failure = e;
+                return;
+            }
+            if (scanned) {
+                tokens.add(type, value, line, columnStart, columnEnd);
+            } else {
+                ended = true;
+                tokens.add(TokenType.EOF, "", line, start, current);
+            }
+        }
     }
 
-    public List<Token> tokenize() {
-        while (!isAtEnd()) {
+    /**
+     * Scans up to the end of the next token, false when the source ends first.
+     */
+    private boolean scan() {
+        type = null;
+        while (type == null && !isAtEnd()) {
             start = current;
             columnStart = columnEnd;
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF, "", line, start, current));
-        return tokens;
+        return type != null;
     }
 
     private void scanToken() {
@@ -162,39 +227,125 @@ public class Lexer {
             throw Err.err("Unterminated string.", line, columnEnd);
         }
         advance();
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(TokenType.STRING, value);
     }
 
     private void number() {
-        while (isDigit(peek()) || (peek() == '.' && next() != '.')) advance();
-        addToken(TokenType.NUMBER, source.substring(start, current));
+        while (isDigit(peek()) || (peek() == '.' && peekNext() != '.')) advance();
+        addToken(TokenType.NUMBER, text(start, current));
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.getOrDefault(text, TokenType.IDENTIFIER);
-        addToken(type);
+        final int from = start - bufferStart;
+        final int length = current - start;
+        final TokenType keyword = keyword(buffer, from, length);
+        if (keyword == null) {
+            addToken(TokenType.IDENTIFIER, names.intern(buffer, from, length));
+        } else {
+            addToken(keyword);
+        }
+    }
+
+    /**
+     * Keyword spelled by the text, null for an identifier. The first letters pick the only keyword it can be,
+     * which is then compared.
+     */
+    private static TokenType keyword(final char[] text, final int from, final int length) {
+        final TokenType candidate = switch (text[from]) {
+            case 'a' -> length == 3 ? TokenType.AND : TokenType.ASSERT;
+            case 'c' -> TokenType.CLASS;
+            case 'e' -> TokenType.ELSE;
+            case 'f' -> length == 3 ? TokenType.FOR : length == 4 ? TokenType.FUNC : TokenType.FALSE;
+            case 'i' -> length == 2 && text[from + 1] == 'f' ? TokenType.IF : TokenType.IN;
+            case 'm' -> length == 4 && text[from + 1] == 'a' ? TokenType.MAKE : TokenType.MEMO;
+            case 'o' -> length == 2 ? TokenType.OR : TokenType.OUT;
+            case 'p' -> length == 4 ? TokenType.PFOR : TokenType.PRINT;
+            case 'r' -> TokenType.RETURN;
+            case 't' -> TokenType.TRUE;
+            case 'w' -> TokenType.WHILE;
+            default -> null;
+        };
+        if (candidate == null || candidate.lexeme.length() != length) {
+            return null;
+        }
+        for (int i = 1; i < length; i++) {
+            if (candidate.lexeme.charAt(i) != text[from + i]) {
+                return null;
+            }
+        }
+        return candidate;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(current);
     }
 
     private char advance() {
         columnEnd++;
-        return source.charAt(current++);
+        return charAt(current++);
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
+    }
+
+    private char peekNext() {
+        if (!available(current + 1)) return '\0';
+        return charAt(current + 1);
+    }
+
+    private char charAt(final int position) {
+        return buffer[position - bufferStart];
+    }
+
+    private String text(final int from, final int to) {
+        return new String(buffer, from - bufferStart, to - from);
     }
 
-    private char next() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+    /**
+     * Reads the source up to the position, returns false when it ends before.
+     */
+    private boolean available(final int position) {
+        while (position >= bufferStart + limit) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next chunk of the source. Text before the current token is dropped from the buffer first, the
+     * buffer only grows for a token longer than it.
+     */
+    private boolean fill() {
+        if (exhausted) {
+            return false;
+        }
+        final int consumed = start - bufferStart;
+        if (consumed > 0) {
+            System.arraycopy(buffer, consumed, buffer, 0, limit - consumed);
+            limit -= consumed;
+            bufferStart = start;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        final int read;
+        try {
+            read = input.read(CharBuffer.wrap(buffer, limit, buffer.length - limit));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (read < 0) {
+            exhausted = true;
+            return false;
+        }
+        limit += read;
+        return true;
     }
 
     private boolean isDigit(char c) {
@@ -212,11 +363,12 @@ public class Lexer {
     }
 
     private void addToken(final TokenType type) {
-        addToken(type, source.substring(start, current));
+        addToken(type, type.lexeme);
     }
 
     private void addToken(final TokenType type, final String literal) {
-        tokens.add(new Token(type, literal, line, columnStart, columnEnd));
+        this.type = type;
+        this.value = literal;
     }
 
 }
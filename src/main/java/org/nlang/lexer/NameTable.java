@@ -0,0 +1,66 @@
+package org.nlang.lexer;
+
+/**
+ * Identifiers seen by one lexer, each name is created once and the same string is returned for every later
+ * occurrence, so lexing a name twice doesn't allocate and equal names are identical.
+ */
+final class NameTable {
+    private String[] names = new String[64];
+    private int size;
+
+    String intern(final char[] text, final int from, final int length) {
+        int hash = 0;
+        for (int i = from; i < from + length; i++) {
+            hash = 31 * hash + text[i];
+        }
+        int mask = names.length - 1;
+        int slot = mix(hash) & mask;
+        for (String name = names[slot]; name != null; name = names[slot]) {
+            if (matches(name, text, from, length)) {
+                return name;
+            }
+            slot = (slot + 1) & mask;
+        }
+        final String name = new String(text, from, length);
+        names[slot] = name;
+        if (++size * 2 > names.length) {
+            grow();
+        }
+        return name;
+    }
+
+    private void grow() {
+        final String[] old = names;
+        names = new String[old.length * 2];
+        final int mask = names.length - 1;
+        for (String name : old) {
+            if (name != null) {
+                int slot = mix(name.hashCode()) & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = name;
+            }
+        }
+    }
+
+    /**
+     * Spreads the hash, names differing in their last letter would otherwise fill neighbouring slots.
+     */
+    private static int mix(final int hash) {
+        final int spread = hash * 0x9E3779B9;
+        return spread ^ (spread >>> 16);
+    }
+
+    private static boolean matches(final String name, final char[] text, final int from, final int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,16 +3,26 @@ package org.nlang.lexer;
 public class Token {
 
     public enum TokenType {
-        LPAREN, RPAREN, SEMICOLON, ASSIGN,
-        LBRACE, RBRACE,
-        PLUS, MINUS, MULTIPLY, DIVIDE,
-        NUMBER, IDENTIFIER, STRING,
-        MAKE, PRINT,
-        GREATER, SMALLER, AND, OR,
-        COMMA, FUNC, RETURN, ASSERT,
-        IN, DOT_DOT, EQUAL, NOT, NOT_EQUAL, TRUE, FALSE,
-        DOT, COLUMN, CLASS,
-        IF, ELSE, FOR, WHILE, OUT, LEFT_BRACKET, RIGHT_BRACKET, EOF
+        LPAREN("("), RPAREN(")"), SEMICOLON(";"), ASSIGN("="),
+        LBRACE("{"), RBRACE("}"),
+        PLUS("+"), MINUS("-"), MULTIPLY("*"), DIVIDE("/"),
+        NUMBER(null), IDENTIFIER(null), STRING(null),
+        MAKE("make"), PRINT("print"),
+        GREATER(">"), SMALLER("<"), AND("and"), OR("or"),
+        COMMA(","), FUNC("func"), MEMO("memo"), RETURN("return"), ASSERT("assert"),
+        IN("in"), DOT_DOT(".."), EQUAL("=="), NOT("!"), NOT_EQUAL("!="), TRUE("true"), FALSE("false"),
+        DOT("."), COLUMN(":"), CLASS("class"),
+        IF("if"), ELSE("else"), FOR("for"), PFOR("pfor"), WHILE("while"), OUT("out"),
+        LEFT_BRACKET("["), RIGHT_BRACKET("]"), EOF("");
+
+        /**
+         * Text of every token of this type, null for literals and identifiers.
+         */
+        public final String lexeme;
+
+        TokenType(final String lexeme) {
+            this.lexeme = lexeme;
+        }
     }
 
     public final TokenType type;
@@ -0,0 +1,92 @@
+package org.nlang.lexer;
+
+import org.nlang.lexer.Token.TokenType;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Tokens of a source stored column by column in primitive arrays, a {@link Token} is only created when one is
+ * read through the list. The accessors read single fields without creating one. The buffer holds either all
+ * tokens of the source or, while parsing a stream, a window of them, see {@link Lexer#tokenize(TokenBuffer, int)}.
+ */
+public final class TokenBuffer extends AbstractList<Token> implements RandomAccess {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] types;
+    private String[] values;
+    private int[] lines;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    TokenBuffer(final int capacity) {
+        types = new byte[capacity];
+        values = new String[capacity];
+        lines = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+    }
+
+    void add(final TokenType type, final String value, final int line, final int start, final int end) {
+        if (size == types.length) {
+            final int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        values[size] = value;
+        lines[size] = line;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Drops the tokens before the index, the token at the index becomes the first one.
+     */
+    public void removeBefore(final int index) {
+        Objects.checkIndex(index, size + 1);
+        final int remaining = size - index;
+        System.arraycopy(types, index, types, 0, remaining);
+        System.arraycopy(values, index, values, 0, remaining);
+        System.arraycopy(lines, index, lines, 0, remaining);
+        System.arraycopy(starts, index, starts, 0, remaining);
+        System.arraycopy(ends, index, ends, 0, remaining);
+        Arrays.fill(values, remaining, size, null);
+        size = remaining;
+        modCount++;
+    }
+
+    public TokenType type(final int index) {
+        return TYPES[types[checked(index)]];
+    }
+
+    public String value(final int index) {
+        return values[checked(index)];
+    }
+
+    public int line(final int index) {
+        return lines[checked(index)];
+    }
+
+    @Override
+    public Token get(final int index) {
+        checked(index);
+        return new Token(TYPES[types[index]], values[index], lines[index], starts[index], ends[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int checked(final int index) {
+        return Objects.checkIndex(index, size);
+    }
+}
@@ -2,89 +2,318 @@ package org.nlang.parser;
 
 import org.nlang.err.Err;
 import org.nlang.lexer.Token;
+import org.nlang.vm.CompiledFunction;
+import org.nlang.vm.Compiler;
 
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class ASTNode {
 
-    public abstract EvalResult evaluate(Environment env);
+    /**
+     * Evaluates the node and returns its value. Statements return null, or a {@link Completion} when they
+     * leave the enclosing function.
+     */
+    public abstract Object evaluate(Environment env);
+
+    /**
+     * Returns this node with its children rewritten by an optimizer pass, see {@link Optimizer}.
+     */
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return this;
+    }
+
+    /**
+     * Evaluates a node expected to produce a number, nodes producing numbers override it to avoid boxing.
+     * Throws {@link UnexpectedResultException} holding the value when it isn't a number.
+     */
+    public double evaluateDouble(Environment env) throws UnexpectedResultException {
+        return expectDouble(evaluate(env));
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResultException {
+        if (value instanceof Double d) {
+            return d;
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    /**
+     * Evaluates a node expected to produce a boolean, nodes producing booleans override it to avoid boxing.
+     * Throws {@link UnexpectedResultException} holding the value when it isn't a boolean.
+     */
+    public boolean evaluateBoolean(Environment env) throws UnexpectedResultException {
+        Object value = evaluate(env);
+        if (value instanceof Boolean b) {
+            return b;
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    /**
+     * Binds the variables used by this node and its children to their scopes, see {@link Resolver}.
+     */
+    public void resolve(Resolver resolver) {
+    }
+
+    /**
+     * Emits the bytecode for this node. Expressions leave exactly one value on the VM stack.
+     */
+    public abstract void compile(Compiler compiler);
 
 }
 
+/**
+ * Binary operation which specializes itself on the operand types seen by its first evaluation. Numbers,
+ * strings and booleans are then handled without operator dispatch or boxing of intermediate values. When
+ * an operand has another type the node falls back to the generic operation for good.
+ */
 class BinaryNode extends ASTNode {
+
+    private enum State {
+        UNINITIALIZED, DOUBLE, STRING, BOOLEAN, GENERIC
+    }
+
     final ASTNode left;
     final ASTNode right;
     final Token operatorToken;
     final Token.TokenType operator;
+    private final boolean arithmetic;
+    private State state = State.UNINITIALIZED;
 
     public BinaryNode(ASTNode left, ASTNode right, Token operatorToken) {
         this.left = left;
         this.right = right;
         this.operatorToken = operatorToken;
         this.operator = operatorToken.type;
+        this.arithmetic = switch (operator) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE -> true;
+            default -> false;
+        };
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Object leftVal = left.evaluate(env).result;
-        Object rightVal = right.evaluate(env).result;
+    public Object evaluate(Environment env) {
+        try {
+            return switch (state) {
+                case UNINITIALIZED -> specialize(env);
+                case GENERIC -> Operations.binary(operatorToken, left.evaluate(env), right.evaluate(env));
+                default -> arithmetic ? (Object) evaluateDouble(env) : (Object) evaluateBoolean(env);
+            };
+        } catch (UnexpectedResultException e) {
+            return e.getResult();
+        }
+    }
 
-        if (operator == Token.TokenType.EQUAL) {
-            return new EvalResult(leftVal.equals(rightVal));
+    @Override
+    public double evaluateDouble(Environment env) throws UnexpectedResultException {
+        if (state != State.DOUBLE || !arithmetic) {
+            return super.evaluateDouble(env);
+        }
+        double l;
+        double r;
+        try {
+            l = left.evaluateDouble(env);
+        } catch (UnexpectedResultException e) {
+            return expectDouble(generalize(e.getResult(), right.evaluate(env)));
+        }
+        try {
+            r = right.evaluateDouble(env);
+        } catch (UnexpectedResultException e) {
+            return expectDouble(generalize(l, e.getResult()));
         }
-        if (operator == Token.TokenType.NOT_EQUAL) {
-            return new EvalResult(!leftVal.equals(rightVal));
+        return switch (operator) {
+            case PLUS -> l + r;
+            case MINUS -> l - r;
+            case MULTIPLY -> l * r;
+            default -> l / r;
+        };
+    }
+
+    /**
+     * Both operands of {@code &&} and {@code ||} are always evaluated, like in the VM.
+     */
+    @Override
+    public boolean evaluateBoolean(Environment env) throws UnexpectedResultException {
+        switch (state) {
+            case DOUBLE -> {
+                if (arithmetic) {
+                    return super.evaluateBoolean(env);
+                }
+                double l;
+                double r;
+                try {
+                    l = left.evaluateDouble(env);
+                } catch (UnexpectedResultException e) {
+                    return expectBoolean(generalize(e.getResult(), right.evaluate(env)));
+                }
+                try {
+                    r = right.evaluateDouble(env);
+                } catch (UnexpectedResultException e) {
+                    return expectBoolean(generalize(l, e.getResult()));
+                }
+                return switch (operator) {
+                    case GREATER -> l > r;
+                    case SMALLER -> l < r;
+                    case EQUAL -> Double.doubleToLongBits(l) == Double.doubleToLongBits(r);
+                    default -> Double.doubleToLongBits(l) != Double.doubleToLongBits(r);
+                };
+            }
+            case STRING -> {
+                Object l = left.evaluate(env);
+                Object r = right.evaluate(env);
+                if (l instanceof CharSequence a && r instanceof CharSequence b) {
+                    return Operations.equal(a, b) == (operator == Token.TokenType.EQUAL);
+                }
+                return expectBoolean(generalize(l, r));
+            }
+            case BOOLEAN -> {
+                boolean l;
+                boolean r;
+                try {
+                    l = left.evaluateBoolean(env);
+                } catch (UnexpectedResultException e) {
+                    return expectBoolean(generalize(e.getResult(), right.evaluate(env)));
+                }
+                try {
+                    r = right.evaluateBoolean(env);
+                } catch (UnexpectedResultException e) {
+                    return expectBoolean(generalize(l, e.getResult()));
+                }
+                return switch (operator) {
+                    case AND -> l & r;
+                    case OR -> l | r;
+                    case EQUAL -> l == r;
+                    default -> l != r;
+                };
+            }
+            default -> {
+                return super.evaluateBoolean(env);
+            }
         }
-        if (operator == Token.TokenType.AND) {
-            return new EvalResult((boolean) leftVal && (boolean) rightVal);
+    }
+
+    /**
+     * First evaluation, picks the specialization matching the operand types.
+     */
+    private Object specialize(Environment env) {
+        Object l = left.evaluate(env);
+        Object r = right.evaluate(env);
+        boolean equality = operator == Token.TokenType.EQUAL || operator == Token.TokenType.NOT_EQUAL;
+        boolean logical = operator == Token.TokenType.AND || operator == Token.TokenType.OR;
+        if (l instanceof Double && r instanceof Double && !logical) {
+            state = State.DOUBLE;
+        } else if (l instanceof CharSequence && r instanceof CharSequence && equality) {
+            state = State.STRING;
+        } else if (l instanceof Boolean && r instanceof Boolean && (equality || logical)) {
+            state = State.BOOLEAN;
+        } else {
+            state = State.GENERIC;
         }
-        if (operator == Token.TokenType.OR) {
-            return new EvalResult((boolean) leftVal || (boolean) rightVal);
+        return Operations.binary(operatorToken, l, r);
+    }
+
+    /**
+     * Operands no longer match the specialization, the node stays generic from now on.
+     */
+    private Object generalize(Object l, Object r) {
+        state = State.GENERIC;
+        return Operations.binary(operatorToken, l, r);
+    }
+
+    private static boolean expectBoolean(Object value) throws UnexpectedResultException {
+        if (value instanceof Boolean b) {
+            return b;
         }
-        return processNumberOperations((double) leftVal, (double) rightVal, operator);
+        throw new UnexpectedResultException(value);
     }
 
-    private EvalResult processNumberOperations(double leftVal, double rightVal, Token.TokenType operator) {
-        return switch (operator) {
-            case PLUS -> new EvalResult(leftVal + rightVal);
-            case MINUS -> new EvalResult(leftVal - rightVal);
-            case MULTIPLY -> new EvalResult(leftVal * rightVal);
-            case DIVIDE -> new EvalResult(leftVal / rightVal);
-            case GREATER -> new EvalResult(leftVal > rightVal);
-            case SMALLER -> new EvalResult(leftVal < rightVal);
-            default -> throw Err.err("Unknown operator: " + operatorToken.value, operatorToken);
-        };
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new BinaryNode(rewriter.expression(left), rewriter.expression(right), operatorToken);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(left);
+        resolver.resolve(right);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(left);
+        compiler.expression(right);
+        compiler.binary(operatorToken);
     }
 
 }
 
 class BlockNode extends ASTNode {
     final List<ASTNode> expressions;
+    private boolean scoped;
+    private int size;
 
     public BlockNode(List<ASTNode> expressions) {
         this.expressions = expressions;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Environment localEnv = new Environment(env);
-        EvalResult result = null;
+    public Object evaluate(Environment env) {
+        return run(scoped ? new Environment(env, size) : env);
+    }
+
+    /**
+     * Runs the statements in the given environment, loops use it to run their body in the loop's own frame.
+     * Returns the completion of a return statement or null.
+     */
+    Completion run(Environment env) {
+        for (ASTNode expr : expressions) {
+            if (!(expr instanceof FunctionDefinitionNode) && expr.evaluate(env) == Completion.RETURN) {
+                return Completion.RETURN;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new BlockNode(rewriter.statements(expressions));
+    }
+
+    /**
+     * A block which declares neither variables nor functions needs no environment of its own.
+     */
+    @Override
+    public void resolve(Resolver resolver) {
+        scoped = expressions.stream()
+                .anyMatch(e -> e instanceof VarDeclarationNode || e instanceof FunctionDefinitionNode);
+        if (scoped) {
+            resolver.beginScope();
+            resolveStatements(resolver);
+            size = resolver.endScope();
+        } else {
+            resolveStatements(resolver);
+        }
+    }
+
+    void resolveStatements(Resolver resolver) {
         for (ASTNode expr : expressions) {
             if (expr instanceof FunctionDefinitionNode node) {
-                localEnv.addFunction(node);
-            } else {
-                result = expr.evaluate(localEnv);
-                if (result != null && result.isReturn) {
-                    return result;
-                }
+                resolver.declareFunction(node);
             }
         }
-        return result;
+        resolver.resolveStatements(expressions);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.block(expressions);
     }
 
     public List<ASTNode> getExpressions() {
@@ -93,103 +322,155 @@ class BlockNode extends ASTNode {
 }
 
 class CallNode extends ASTNode {
-    ASTNode callee;
+    final ASTNode callee;
     final Token name;
     final List<ASTNode> arguments;
+    private final CallSite site;
+    private FunctionDefinitionNode function;
+    private int functionDepth;
+    private boolean resultUsed = true;
 
     public CallNode(ASTNode callee, final Token token, List<ASTNode> arguments) {
         this.callee = callee;
         this.name = token;
         this.arguments = arguments;
+        this.site = new CallSite(token, arguments.size());
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
+    public Object evaluate(Environment env) {
 
         if (callee == null) {
-            FunctionDefinitionNode func = (FunctionDefinitionNode) env.getFunction(name);
-            List<Object> evaluatedArguments = new ArrayList<>();
-            for (ASTNode argument : arguments) {
-                evaluatedArguments.add(argument.evaluate(env).result);
-            }
-            return func.call(evaluatedArguments, env);
-        }
-        Object evaluated = callee.evaluate(env).result;
-
-        if (evaluated instanceof Iterable<?>) {
-            List<Object> test = new ArrayList<>((List<Object>) evaluated);
-            String value = name.value;
-            switch (value) {
-                case "add" -> {
-                    arguments.forEach(a -> test.add(a.evaluate(env).result));
-                    assignResult(env, test);
-                    return new EvalResult(new ArrayList<>(test));
-                }
-                case "remove" -> {
-                    arguments.forEach(a -> test.remove(a.evaluate(env).result));
-                    assignResult(env, test);
-                    return new EvalResult(new ArrayList<>(test));
-                }
-                case "reverse" -> {
-                    return new EvalResult(test.reversed());
+            Environment scope = scope(env);
+            FunctionDefinitionNode func = target(scope);
+            if (func instanceof CompiledFunction) {
+                List<Object> evaluatedArguments = new ArrayList<>();
+                for (ASTNode argument : arguments) {
+                    evaluatedArguments.add(argument.evaluate(env));
                 }
-                case "last" -> {
-                    return new EvalResult(test.getLast());
-                }
-                case "first" -> {
-                    return new EvalResult(test.getFirst());
-                }
-                default -> throw Err.err(String.format("%s is not a valid method on iterable", name.value), name);
+                return func.call(evaluatedArguments, scope);
             }
+            Environment frame = func.frame(scope);
+            for (int i = 0; i < arguments.size(); i++) {
+                frame.bind(i, arguments.get(i).evaluate(env));
+            }
+            return func.run(frame);
+        }
+        Object evaluated = callee.evaluate(env);
+        List<Object> evaluatedArguments = new ArrayList<>();
+        if (!(evaluated instanceof NObjectInstance)) {
+            for (ASTNode argument : arguments) {
+                evaluatedArguments.add(argument.evaluate(env));
+            }
+        }
+        Object result = Operations.invokeMethod(evaluated, name, evaluatedArguments, callee instanceof VariableNode);
+        if (Operations.isMutatingMethod(name) && Operations.isUpdatable(evaluated)) {
+            assignResult(env, result);
+            return resultUsed ? Operations.copyOf(result) : null;
+        }
+        return result;
+    }
 
-
+    /**
+     * Evaluates the arguments of a call in tail position and returns the call for the enclosing function to
+     * make, see {@link TailCall}. Functions running on the VM and memoized functions, which have to see their
+     * result, are called right away.
+     */
+    Object tailCall(Environment env) {
+        Environment scope = scope(env);
+        FunctionDefinitionNode func = target(scope);
+        if (func instanceof CompiledFunction || func.memo() != null) {
+            return evaluate(env);
+        }
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments.get(i).evaluate(env);
         }
-        if (evaluated instanceof String str) {
-            List<String> newValue = str.chars()
-                    .mapToObj(c -> String.valueOf((char) c))
-                    .collect(Collectors.toCollection(ArrayList::new));
+        return new TailCall(func, scope, values);
+    }
 
-            String value = name.value;
-            switch (value) {
-                case "add" -> {
-                    arguments.forEach(a -> newValue.add((String) a.evaluate(env).result));
-                    String result = String.join("", newValue);
-                    assignResult(env, result);
-                    return new EvalResult(result);
-                }
-                case "remove" -> {
-                    arguments.forEach(a -> newValue.remove(a.evaluate(env).result));
-                    String result = String.join("", newValue);
-                    assignResult(env, result);
-                    return new EvalResult(result);
-                }
-                case "reverse" -> {
-                    return new EvalResult(String.join("", newValue.reversed()));
-                }
-                case "last" -> {
-                    return new EvalResult(newValue.getLast());
-                }
-                case "first" -> {
-                    return new EvalResult(newValue.getFirst());
-                }
-                default -> throw Err.err(String.format("%s is not a valid method on iterable", name.value), name);
+    private Environment scope(Environment env) {
+        return function == null ? env.globals() : env.ancestor(functionDepth);
+    }
+
+    private FunctionDefinitionNode target(Environment scope) {
+        return function == null ? (FunctionDefinitionNode) site.function(scope) : function;
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new CallNode(rewriter.expression(callee), name, rewriter.expressions(arguments));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        VariableNode variable = receiverVariable();
+        if (variable != null && Operations.isMutatingMethod(name)) {
+            resolver.lookupAssigned(variable.token);
+        }
+        resolver.resolve(callee);
+        resolver.resolveAll(arguments);
+        if (callee == null) {
+            Resolver.FunctionAddress address = resolver.lookupFunction(name);
+            if (address != null) {
+                function = address.function();
+                functionDepth = address.depth();
+                function.checkArity(arguments.size());
             }
+        }
+    }
 
+    @Override
+    public void compile(Compiler compiler) {
+        if (callee == null) {
+            arguments.forEach(compiler::expression);
+            compiler.callFunction(name, arguments.size());
+            return;
         }
-        if (evaluated instanceof NObjectInstance n) {
-            return new EvalResult(n.getField(name));
+        compiler.expression(callee);
+        arguments.forEach(compiler::expression);
+        VariableNode variable = receiverVariable();
+        if (variable != null && Operations.isMutatingMethod(name)) {
+            compiler.invokeAndAssign(name, arguments.size(), variable.token, callee == variable, resultUsed);
+        } else {
+            compiler.invoke(name, arguments.size());
         }
-        throw Err.err("Wrong usage", name);
+    }
+
+    /**
+     * Function defined in a block the call is bound to, null when it calls a global function by name.
+     */
+    FunctionDefinitionNode localFunction() {
+        return function;
+    }
 
+    /**
+     * The call is a statement, mutating methods don't need to copy their result for it.
+     */
+    void discardResult() {
+        resultUsed = false;
     }
 
     private void assignResult(Environment env, Object result) {
-        while (callee instanceof CallNode v) {
-            callee = v.callee;
+        VariableNode variable = receiverVariable();
+        if (variable != null) {
+            variable.assign(env, result);
+        }
+    }
+
+    /**
+     * Variable at the root of a method chain like {@code a.reverse().add(1)}, which receives the result
+     * of mutating methods.
+     */
+    private VariableNode receiverVariable() {
+        ASTNode receiver = callee;
+        while (receiver instanceof CallNode v) {
+            receiver = v.callee;
         }
-        if (callee instanceof VariableNode calV) {
-            env.assignVariable(calV.token, result);
+        if (receiver instanceof VariableNode calV) {
+            return calV;
         }
+        return null;
     }
 }
 
@@ -198,6 +479,7 @@ class ChildAccessNode extends ASTNode {
     final ASTNode index;
     final ASTNode parent;
     final Token indexToken;
+    private Shape.Cache cache;
 
     public ChildAccessNode(final ASTNode parent, final ASTNode index, final Token indexToken) {
         this.parent = parent;
@@ -206,44 +488,88 @@ class ChildAccessNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        NObjectInstance evaluated = (NObjectInstance) parent.evaluate(env).result;
-        return new EvalResult(evaluated.getField(indexToken));
+    public Object evaluate(Environment env) {
+        Object target = parent.evaluate(env);
+        if (target instanceof NObjectInstance object) {
+            Shape.Cache hit = object.cache(cache, indexToken.value);
+            if (hit != null) {
+                cache = hit;
+                return object.valueAt(hit.slot());
+            }
+        }
+        return Operations.field(target, indexToken);
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new ChildAccessNode(rewriter.expression(parent), index, indexToken);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(parent);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(parent);
+        compiler.field(indexToken);
     }
 }
 
 class ContainerNode extends ASTNode {
 
     final Map<ASTNode, ASTNode> fields;
-    private NObjectInstance instance;
 
     public ContainerNode(Map<ASTNode, ASTNode> fields) {
         this.fields = fields;
     }
 
-    private void init(Environment environment) {
+    @Override
+    public Object evaluate(Environment env) {
+        NObjectInstance instance = new NObjectInstance();
+        fields.forEach((key, value) -> instance.defineField(key.evaluate(env), value.evaluate(env)));
+        return instance;
+    }
 
-        instance = new NObjectInstance();
-        fields.forEach((key, value) ->
-                instance.defineField(key.evaluate(environment).result, value.evaluate(environment).result));
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        Map<ASTNode, ASTNode> rewritten = new LinkedHashMap<>();
+        fields.forEach((key, value) -> rewritten.put(rewriter.expression(key), rewriter.expression(value)));
+        return new ContainerNode(rewritten);
+    }
 
+    @Override
+    public void resolve(Resolver resolver) {
+        fields.forEach((key, value) -> {
+            resolver.resolve(key);
+            resolver.resolve(value);
+        });
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        init(env);
-        return new EvalResult(instance, false);
+    public void compile(Compiler compiler) {
+        compiler.object();
+        fields.forEach((key, value) -> {
+            compiler.expression(key);
+            compiler.expression(value);
+            compiler.defineField();
+        });
     }
 }
 
 class ForInLoopNode extends ASTNode {
     final Token loopVar;
     final ASTNode end;
-    final ASTNode body;
+    final BlockNode body;
     final Token indexVar;
     final Token endToken;
+    private int loopSlot;
+    private int indexSlot;
+    private int size;
+    private FunctionDefinitionNode function;
 
-    public ForInLoopNode(Token loopVar, ASTNode endNode, ASTNode body, Token indexVar, Token endToken) {
+    public ForInLoopNode(Token loopVar, ASTNode endNode, BlockNode body, Token indexVar, Token endToken) {
         this.loopVar = loopVar;
         this.end = endNode;
         this.body = body;
@@ -252,25 +578,49 @@ class ForInLoopNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-
-        Object potentialIterable = end.evaluate(env).result;
-        if (potentialIterable instanceof String str) {
-            potentialIterable = str.chars().mapToObj(c -> String.valueOf((char) c)).toList();
-        }
-        if (!(potentialIterable instanceof Iterable<?>)) {
-            throw Err.err("variable " + endToken.value + " is not iterable.", endToken);
+    public Object evaluate(Environment env) {
+
+        Cursor cursor = Operations.iterate(end.evaluate(env), endToken);
+
+        final Environment loopEnv = new Environment(env, size);
+        int i = 0;
+        for (; cursor.hasNext(); i++) {
+            loopEnv.assignAt(0, loopSlot, cursor.next());
+            loopEnv.assignAt(0, indexSlot, (double) i);
+            if (body.run(loopEnv) == Completion.RETURN) {
+                countIterations(i);
+                return Completion.RETURN;
+            }
         }
-        List<Object> variable = (List<Object>) potentialIterable;
+        countIterations(i);
+        return null;
+    }
 
-        final Environment loopEnv = new Environment(env);
-        loopEnv.defineVariable(indexVar, 0);
-        for (int i = 0; i < variable.size(); i++) {
-            loopEnv.defineVariable(loopVar, variable.get(i));
-            loopEnv.defineVariable(indexVar, (double) i);
-            body.evaluate(loopEnv);
+    private void countIterations(int count) {
+        if (function != null) {
+            function.loopIterations(count);
         }
-        return null;
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new ForInLoopNode(loopVar, rewriter.expression(end), rewriter.body(body), indexVar, endToken);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        function = resolver.enclosingFunction();
+        resolver.resolve(end);
+        resolver.beginScope();
+        indexSlot = resolver.declare(indexVar);
+        loopSlot = resolver.declare(loopVar);
+        body.resolveStatements(resolver);
+        size = resolver.endScope();
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.iterableLoop(end, endToken, loopVar, indexVar, body);
     }
 }
 
@@ -279,10 +629,12 @@ class ForLoopNode extends ASTNode {
     final ASTNode start;
     final ASTNode end;
     final Token indexVariable;
-    final ASTNode body;
+    final BlockNode body;
     final boolean isEqual;
+    private int size;
+    private FunctionDefinitionNode function;
 
-    public ForLoopNode(ASTNode start, ASTNode end, Token indexVariable, ASTNode body, boolean isEqual) {
+    public ForLoopNode(ASTNode start, ASTNode end, Token indexVariable, BlockNode body, boolean isEqual) {
         this.start = start;
         this.end = end;
         this.indexVariable = indexVariable;
@@ -291,43 +643,315 @@ class ForLoopNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        int startValue = ((Double) (start.evaluate(env).result)).intValue();
-        int endValue = ((Double) end.evaluate(env).result).intValue();
+    public Object evaluate(Environment env) {
+        int startValue = bound(start, env);
+        int endValue = bound(end, env);
         endValue = isEqual ? endValue + 1 : endValue;
-        Environment loopEnv = new Environment(env);
+        Environment loopEnv = new Environment(env, size);
         for (int i = startValue; i < endValue; i++) {
-            loopEnv.defineVariable(indexVariable, (double) i);
-            body.evaluate(loopEnv);
+            loopEnv.assignAt(0, 0, (double) i);
+            if (body.run(loopEnv) == Completion.RETURN) {
+                countIterations(i - startValue);
+                return Completion.RETURN;
+            }
+        }
+        countIterations(endValue - startValue);
+        return null;
+    }
+
+    /**
+     * Counts the iterations towards compiling the enclosing function, see {@link FunctionDefinitionNode}.
+     */
+    private void countIterations(int count) {
+        if (function != null && count > 0) {
+            function.loopIterations(count);
+        }
+    }
+
+    static int bound(ASTNode node, Environment env) {
+        try {
+            return (int) node.evaluateDouble(env);
+        } catch (UnexpectedResultException e) {
+            return ((Double) e.getResult()).intValue();
+        }
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new ForLoopNode(rewriter.expression(start), rewriter.expression(end), indexVariable,
+                rewriter.body(body), isEqual);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        function = resolver.enclosingFunction();
+        resolver.resolve(start);
+        resolver.resolve(end);
+        resolver.beginScope();
+        resolver.declare(indexVariable);
+        body.resolveStatements(resolver);
+        size = resolver.endScope();
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.rangeLoop(start, end, isEqual, indexVariable, body);
+    }
+}
 
+/**
+ * Range loop whose iterations run in parallel on the common {@link ForkJoinPool}. The range is split into chunks
+ * and every chunk runs in a loop environment of its own. The body may only assign variables declared in it,
+ * results are combined through the reduction variables: every chunk starts them from the identity of their
+ * operator, and when the loop is done the partial results are combined with the variables' values in iteration
+ * order. On the VM the loop runs sequentially, which gives the same results.
+ */
+class ParallelForNode extends ASTNode {
+
+    /**
+     * Variable combining the results of the iterations with an operator: {@code +}, {@code *}, {@code and},
+     * {@code or}, or {@code add} which collects the added elements into a list.
+     */
+    record Reduction(Token variable, Token operator) {
+
+        Object identity() {
+            return switch (operator.type) {
+                case PLUS -> 0.0;
+                case MULTIPLY -> 1.0;
+                case AND -> true;
+                case OR -> false;
+                default -> new NList();
+            };
+        }
+
+        /**
+         * Combines two results in iteration order, a partial result of a chunk on the left can be changed.
+         */
+        Object combine(Object left, Object right, boolean partial) {
+            if (operator.type != Token.TokenType.IDENTIFIER) {
+                return Operations.binary(operator, left, right);
+            }
+            if (!(left instanceof List<?> list)) {
+                throw Err.err("Reduction with add needs a list: ", variable);
+            }
+            NList combined = partial ? (NList) left : new NList(list);
+            combined.addAll((List<?>) right);
+            return combined;
+        }
+    }
+
+    final ASTNode start;
+    final ASTNode end;
+    final Token indexVariable;
+    final BlockNode body;
+    final boolean isEqual;
+    final List<Reduction> reductions;
+    private VariableNode[] targets;
+    private int[] slots;
+    private int size;
+
+    public ParallelForNode(ASTNode start, ASTNode end, Token indexVariable, BlockNode body, boolean isEqual,
+                           List<Reduction> reductions) {
+        this.start = start;
+        this.end = end;
+        this.indexVariable = indexVariable;
+        this.body = body;
+        this.isEqual = isEqual;
+        this.reductions = reductions;
+    }
+
+    @Override
+    public Object evaluate(Environment env) {
+        int startValue = ForLoopNode.bound(start, env);
+        int endValue = ForLoopNode.bound(end, env);
+        endValue = isEqual ? endValue + 1 : endValue;
+        int grain = Math.max(1, (endValue - startValue) / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Object[] partial = ForkJoinPool.commonPool().invoke(new Chunk(env, startValue, endValue, grain, failure));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].assign(env, reductions.get(i).combine(targets[i].evaluate(env), partial[i], false));
         }
         return null;
     }
+
+    /**
+     * Iterations of a part of the range, returns the partial results of the reductions. Tasks only live on the
+     * fork join pool and are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private final class Chunk extends RecursiveTask<Object[]> {
+        private final Environment env;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final AtomicReference<RuntimeException> failure;
+
+        Chunk(Environment env, int from, int to, int grain, AtomicReference<RuntimeException> failure) {
+            this.env = env;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.failure = failure;
+        }
+
+        @Override
+        protected Object[] compute() {
+            if (to - from <= grain) {
+                return run();
+            }
+            int middle = (from + to) >>> 1;
+            Chunk left = new Chunk(env, from, middle, grain, failure);
+            left.fork();
+            Object[] right = new Chunk(env, middle, to, grain, failure).compute();
+            Object[] result = left.join();
+            if (result == null || right == null) {
+                return null;
+            }
+            for (int i = 0; i < result.length; i++) {
+                result[i] = reductions.get(i).combine(result[i], right[i], true);
+            }
+            return result;
+        }
+
+        private Object[] run() {
+            Environment loopEnv = new Environment(env, size);
+            for (int i = 0; i < slots.length; i++) {
+                loopEnv.assignAt(0, slots[i], reductions.get(i).identity());
+            }
+            try {
+                for (int i = from; i < to && failure.get() == null; i++) {
+                    loopEnv.assignAt(0, 0, (double) i);
+                    body.run(loopEnv);
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                return null;
+            }
+            Object[] result = new Object[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                result[i] = loopEnv.getAt(0, slots[i]);
+            }
+            return result;
+        }
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new ParallelForNode(rewriter.expression(start), rewriter.expression(end), indexVariable,
+                rewriter.body(body), isEqual, reductions);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(start);
+        resolver.resolve(end);
+        targets = new VariableNode[reductions.size()];
+        for (int i = 0; i < targets.length; i++) {
+            resolver.lookupAssigned(reductions.get(i).variable());
+            targets[i] = new VariableNode(reductions.get(i).variable());
+            resolver.resolve(targets[i]);
+        }
+        resolver.beginParallelScope();
+        resolver.declare(indexVariable);
+        slots = new int[reductions.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = resolver.declare(reductions.get(i).variable());
+        }
+        body.resolveStatements(resolver);
+        size = resolver.endParallelScope();
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.rangeLoop(start, end, isEqual, indexVariable, body);
+    }
+}
+
+class RangeNode extends ASTNode {
+    final ASTNode start;
+    final ASTNode end;
+    final boolean inclusive;
+    final Token token;
+
+    public RangeNode(ASTNode start, ASTNode end, boolean inclusive, Token token) {
+        this.start = start;
+        this.end = end;
+        this.inclusive = inclusive;
+        this.token = token;
+    }
+
+    @Override
+    public Object evaluate(Environment env) {
+        return Operations.range(start.evaluate(env), end.evaluate(env), inclusive, token);
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new RangeNode(rewriter.expression(start), rewriter.expression(end), inclusive, token);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(start);
+        resolver.resolve(end);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(start);
+        compiler.expression(end);
+        compiler.range(token, inclusive);
+    }
 }
 
 class IfNode extends ASTNode {
     final ASTNode condition;
-    final ASTNode blockExpr;
+    final BlockNode blockExpr;
 
-    public IfNode(ASTNode condition, ASTNode blockExpr) {
+    public IfNode(ASTNode condition, BlockNode blockExpr) {
         this.condition = condition;
         this.blockExpr = blockExpr;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        boolean result = (boolean) this.condition.evaluate(env).result;
+    public Object evaluate(Environment env) {
+        boolean result;
+        try {
+            result = condition.evaluateBoolean(env);
+        } catch (UnexpectedResultException e) {
+            result = (boolean) e.getResult();
+        }
         if (result) {
             return this.blockExpr.evaluate(env);
         }
         return null;
     }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new IfNode(rewriter.expression(condition), rewriter.body(blockExpr));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(condition);
+        resolver.resolve(blockExpr);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.ifStatement(condition, blockExpr);
+    }
 }
 
 class IndexAccessNode extends ASTNode {
     final ASTNode index;
     final ASTNode parent;
     final Token indexValue;
+    private Shape.Cache cache;
 
     public IndexAccessNode(final ASTNode parent, final ASTNode index, final Token indexToken) {
         this.parent = parent;
@@ -336,16 +960,53 @@ class IndexAccessNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Object evaluated = parent.evaluate(env).result;
-        if (evaluated instanceof Iterable v) {
-            List<Object> variable = (List<Object>) v;
-            Double indexValue = (Double) index.evaluate(env).result;
-            return new EvalResult(variable.get(indexValue.intValue()));
-        } else if (evaluated instanceof NObjectInstance nInstance) {
-            return new EvalResult(nInstance.getField(indexValue));
+    public Object evaluate(Environment env) {
+        Object evaluated = parent.evaluate(env);
+        Object key = index.evaluate(env);
+        if (evaluated instanceof NObjectInstance object && index instanceof StringNode field) {
+            Shape.Cache hit = object.cache(cache, field.value);
+            if (hit != null) {
+                cache = hit;
+                return object.valueAt(hit.slot());
+            }
+        }
+        return Operations.index(evaluated, key, indexValue);
+    }
+
+    /**
+     * Reads numeric lists without boxing the element or the index.
+     */
+    @Override
+    public double evaluateDouble(Environment env) throws UnexpectedResultException {
+        Object evaluated = parent.evaluate(env);
+        if (evaluated instanceof NList list && list.isNumeric()) {
+            double i;
+            try {
+                i = index.evaluateDouble(env);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(Operations.index(list, e.getResult(), indexValue));
+            }
+            return list.getDouble((int) i);
         }
-        throw Err.err("[\"value\"] operation only supported for iterables and objects", indexValue);
+        return expectDouble(Operations.index(evaluated, index.evaluate(env), indexValue));
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new IndexAccessNode(rewriter.expression(parent), rewriter.expression(index), indexValue);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(parent);
+        resolver.resolve(index);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(parent);
+        compiler.expression(index);
+        compiler.index(indexValue);
     }
 }
 
@@ -363,38 +1024,81 @@ class IndexSetNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Object indexValue = index.evaluate(env).result;
-        if (indexValue instanceof String index) {
-            Object result = arrayVariable.evaluate(env).result;
-            if (result instanceof NObjectInstance node) {
-                node.defineField(index, value.evaluate(env).result);
+    public Object evaluate(Environment env) {
+        Object target = arrayVariable.evaluate(env);
+        Object indexValue = index.evaluate(env);
+        if (target instanceof NList list && list.isNumeric() && indexValue instanceof Double i
+                && i.intValue() < list.size()) {
+            try {
+                list.setDouble(i.intValue(), value.evaluateDouble(env));
+            } catch (UnexpectedResultException e) {
+                Operations.setIndex(target, indexValue, e.getResult(), arrayName, false);
             }
+            return null;
+        }
+        Object updated = Operations.setIndex(target, indexValue, value.evaluate(env), arrayName,
+                arrayVariable instanceof VariableNode);
+        if (updated != target) {
+            ((VariableNode) arrayVariable).assign(env, updated);
+        }
+        return null;
+    }
 
-        } else if (indexValue instanceof Double index) {
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new IndexSetNode(arrayName, rewriter.expression(arrayVariable), rewriter.expression(index),
+                rewriter.expression(value));
+    }
 
-            final List<Object> array = (List<Object>) arrayVariable.evaluate(env).result;
-            int requiredSize = index.intValue();
-            if (requiredSize > array.size() - 1) {
-                IntStream.range(array.size(), requiredSize + 1).forEach(_ -> array.add(null));
-            }
-            array.set(index.intValue(), value.evaluate(env).result);
+    @Override
+    public void resolve(Resolver resolver) {
+        ASTNode root = arrayVariable;
+        while (root instanceof IndexAccessNode || root instanceof ChildAccessNode) {
+            root = root instanceof IndexAccessNode access ? access.parent : ((ChildAccessNode) root).parent;
         }
+        if (root instanceof VariableNode variable) {
+            resolver.lookupAssigned(variable.token);
+        }
+        resolver.resolve(arrayVariable);
+        resolver.resolve(index);
+        resolver.resolve(value);
+    }
 
-        return null;
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(arrayVariable);
+        compiler.expression(index);
+        compiler.expression(value);
+        if (arrayVariable instanceof VariableNode variable) {
+            compiler.setIndexAndAssign(arrayName, variable.token);
+        } else {
+            compiler.setIndex(arrayName);
+        }
     }
 }
 
 class NumberNode extends ASTNode {
     final double value;
+    private final Double boxed;
 
     public NumberNode(double value) {
         this.value = value;
+        this.boxed = value;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        return new EvalResult(value);
+    public Object evaluate(Environment env) {
+        return boxed;
+    }
+
+    @Override
+    public double evaluateDouble(Environment env) {
+        return value;
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.constant(value);
     }
 }
 
@@ -406,58 +1110,80 @@ class PrintNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        for (ASTNode e : expressions) {
-            Object result = e.evaluate(env).result;
-            print(result);
+    public Object evaluate(Environment env) {
+        synchronized (System.out) {
+            for (ASTNode e : expressions) {
+                Object result = e.evaluate(env);
+                Operations.print(result);
+            }
+            System.out.println();
         }
-        System.out.println();
         return null;
     }
 
-    private void print(Object result) {
-        switch (result) {
-            case NObjectInstance sp -> System.out.println(sp.formattedView(0));
-            case Double r -> printDouble(r);
-            case List<?> array -> printList(array);
-            case null, default -> System.out.print(result);
-        }
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new PrintNode(rewriter.expressions(expressions));
     }
 
-    private void printDouble(Double r) {
-        if (r % 1 == 0) {
-            System.out.print(r.intValue());
-            return;
-        }
-        System.out.print(r);
-
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolveAll(expressions);
     }
 
-    private void printList(List<?> array) {
-        System.out.print("[");
-        for (int i = 0; i < array.size(); i++) {
-            print(array.get(i));
-            if (i < array.size() - 1) {
-                System.out.print(", ");
-            }
+    @Override
+    public void compile(Compiler compiler) {
+        for (ASTNode e : expressions) {
+            compiler.expression(e);
+            compiler.print();
         }
-        System.out.print("]");
+        compiler.printLine();
     }
 
 }
 
 class ReturnNode extends ASTNode {
     final ASTNode value;
+    private int functionDepth;
+    private CallNode tailCall;
 
     public ReturnNode(ASTNode value) {
         this.value = value;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        EvalResult evaluate = value.evaluate(env);
-        evaluate.isReturn = true;
-        return evaluate;
+    public Object evaluate(Environment env) {
+        Object result;
+        if (tailCall != null) {
+            result = tailCall.tailCall(env);
+        } else {
+            result = value == null ? null : value.evaluate(env);
+        }
+        return env.ancestor(functionDepth).returnWith(result);
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new ReturnNode(rewriter.expression(value));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(value);
+        functionDepth = resolver.functionDepth();
+        if (value instanceof CallNode call && call.callee == null && resolver.enclosingFunction() != null) {
+            tailCall = call;
+        }
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        if (value == null) {
+            compiler.nil();
+        } else {
+            compiler.expression(value);
+        }
+        compiler.returnValue();
     }
 }
 
@@ -469,14 +1195,20 @@ class StringNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        return new EvalResult(value);
+    public Object evaluate(Environment env) {
+        return value;
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.constant(value);
     }
 }
 
 class VarDeclarationNode extends ASTNode {
     final Token token;
     final ASTNode value;
+    private int slot = -1;
 
     public VarDeclarationNode(Token token, ASTNode value) {
         this.token = token;
@@ -484,22 +1216,69 @@ class VarDeclarationNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        env.defineVariable(token, value.evaluate(env).result);
+    public Object evaluate(Environment env) {
+        Object result = value.evaluate(env);
+        if (slot < 0) {
+            env.defineVariable(token, result);
+        } else {
+            env.assignAt(0, slot, result);
+        }
         return null;
     }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new VarDeclarationNode(token, rewriter.expression(value));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(value);
+        slot = resolver.declare(token);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(value);
+        compiler.declareVariable(token);
+    }
 }
 
 class VariableNode extends ASTNode {
     final Token token;
+    private int depth;
+    private int slot = -1;
 
     public VariableNode(Token token) {
         this.token = token;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        return new EvalResult(env.getVariable(token));
+    public Object evaluate(Environment env) {
+        if (slot < 0) {
+            return env.getVariable(token);
+        }
+        return env.getAt(depth, slot);
+    }
+
+    void assign(Environment env, Object value) {
+        if (slot < 0) {
+            env.assignVariable(token, value);
+        } else {
+            env.assignAt(depth, slot, value);
+        }
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        Resolver.Address address = resolver.lookup(token);
+        depth = address.depth();
+        slot = address.slot();
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.loadVariable(token);
     }
 }
 
@@ -515,40 +1294,70 @@ class AssertNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Object result = expr.evaluate(env).result;
+    public Object evaluate(Environment env) {
+        Object result = expr.evaluate(env);
         if (!(result instanceof Boolean)) {
             throw Err.err("Assert only accepts expr which evaluates to boolean", token);
         }
         boolean r = (boolean) result;
         if (!r) {
             if (message != null) {
-                throw Err.err(String.format("Assertion failed: %s", message.evaluate(env).result), token);
+                throw Err.err(String.format("Assertion failed: %s", message.evaluate(env)), token);
             }
             throw Err.err("Assertion failed: ", token);
         }
-        return new EvalResult(true);
+        return Boolean.TRUE;
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new AssertNode(token, rewriter.expression(expr), rewriter.expression(message));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(expr);
+        resolver.resolve(message);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.assertStatement(token, expr, message);
     }
 }
 
 class BooleanNode extends ASTNode {
     final Token token;
+    private final Boolean value;
 
     public BooleanNode(Token token) {
         this.token = token;
+        this.value = switch (token.type) {
+            case TRUE -> Boolean.TRUE;
+            case FALSE -> Boolean.FALSE;
+            default -> null;
+        };
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        switch (token.type) {
-            case TRUE -> {
-                return new EvalResult(true);
-            }
-            case FALSE -> {
-                return new EvalResult(false);
-            }
+    public Object evaluate(Environment env) {
+        if (value == null) {
+            throw Err.err("Unexpected token type for boolean", token);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean evaluateBoolean(Environment env) throws UnexpectedResultException {
+        if (value == null) {
+            return super.evaluateBoolean(env);
         }
-        throw Err.err("Unexpected token type for boolean", token);
+        return value;
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.literal(token.type == Token.TokenType.TRUE);
     }
 }
 
@@ -556,6 +1365,8 @@ class BooleanNode extends ASTNode {
 class AssignmentNode extends ASTNode {
     final Token token;
     final ASTNode value;
+    private int depth;
+    private int slot = -1;
 
     public AssignmentNode(Token token, ASTNode value) {
         this.token = token;
@@ -563,10 +1374,34 @@ class AssignmentNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        env.assignVariable(token, value.evaluate(env).result);
+    public Object evaluate(Environment env) {
+        Object result = value.evaluate(env);
+        if (slot < 0) {
+            env.assignVariable(token, result);
+        } else {
+            env.assignAt(depth, slot, result);
+        }
         return null;
     }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new AssignmentNode(token, rewriter.expression(value));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(value);
+        Resolver.Address address = resolver.lookupAssigned(token);
+        depth = address.depth();
+        slot = address.slot();
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(value);
+        compiler.assignVariable(token);
+    }
 }
 
 class UnaryNode extends ASTNode {
@@ -579,14 +1414,61 @@ class UnaryNode extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        Object result = expr.evaluate(env).result;
+    public Object evaluate(Environment env) {
         if (operator.type == Token.TokenType.MINUS) {
-            return new EvalResult(-(double) result);
+            return negate(env);
         }
         if (operator.type == Token.TokenType.NOT) {
-            return new EvalResult(!(boolean) result);
+            return not(env);
         }
         throw Err.err("Token type is not suitable for unary", operator);
     }
+
+    @Override
+    public double evaluateDouble(Environment env) throws UnexpectedResultException {
+        if (operator.type == Token.TokenType.MINUS) {
+            return negate(env);
+        }
+        return super.evaluateDouble(env);
+    }
+
+    @Override
+    public boolean evaluateBoolean(Environment env) throws UnexpectedResultException {
+        if (operator.type == Token.TokenType.NOT) {
+            return not(env);
+        }
+        return super.evaluateBoolean(env);
+    }
+
+    private double negate(Environment env) {
+        try {
+            return -expr.evaluateDouble(env);
+        } catch (UnexpectedResultException e) {
+            return -(double) e.getResult();
+        }
+    }
+
+    private boolean not(Environment env) {
+        try {
+            return !expr.evaluateBoolean(env);
+        } catch (UnexpectedResultException e) {
+            return !(boolean) e.getResult();
+        }
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new UnaryNode(operator, rewriter.expression(expr));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolve(expr);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.expression(expr);
+        compiler.unary(operator);
+    }
 }
@@ -0,0 +1,481 @@
+package org.nlang.parser;
+
+import org.nlang.lexer.Token;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of parsed statements, as they come from the {@link Parser} before they're optimized and resolved.
+ * Nodes are written in prefix order as a tag followed by their fields, numbers as variable length integers and
+ * every distinct string once, later uses refer to it by its index. Token positions are stored relative to the
+ * previous token, so they mostly take a byte. Reading builds the nodes with the same constructors the parser
+ * uses, so it's equivalent to parsing the source again.
+ */
+public final class AstCodec {
+
+    private static final int NULL = 0;
+    private static final int BINARY = 1;
+    private static final int BLOCK = 2;
+    private static final int CALL = 3;
+    private static final int CHILD_ACCESS = 4;
+    private static final int CONTAINER = 5;
+    private static final int FOR_IN = 6;
+    private static final int FOR = 7;
+    private static final int PARALLEL_FOR = 8;
+    private static final int RANGE = 9;
+    private static final int IF = 10;
+    private static final int INDEX_ACCESS = 11;
+    private static final int INDEX_SET = 12;
+    private static final int NUMBER = 13;
+    private static final int PRINT = 14;
+    private static final int RETURN = 15;
+    private static final int STRING = 16;
+    private static final int VAR_DECLARATION = 17;
+    private static final int VARIABLE = 18;
+    private static final int ASSERT = 19;
+    private static final int BOOLEAN = 20;
+    private static final int ASSIGNMENT = 21;
+    private static final int UNARY = 22;
+    private static final int FUNCTION = 23;
+    private static final int ARRAY = 24;
+
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
+
+    /**
+     * The codec and the classes it writes and reads, data written by other versions of them can't be read back.
+     */
+    public static final List<Class<?>> FORMAT_CLASSES = List.of(AstCodec.class, ASTNode.class, BinaryNode.class,
+            BlockNode.class, CallNode.class, ChildAccessNode.class, ContainerNode.class, ForInLoopNode.class,
+            ForLoopNode.class, ParallelForNode.class, RangeNode.class, IfNode.class, IndexAccessNode.class,
+            IndexSetNode.class, NumberNode.class, PrintNode.class, ReturnNode.class, StringNode.class,
+            VarDeclarationNode.class, VariableNode.class, AssertNode.class, BooleanNode.class, AssignmentNode.class,
+            UnaryNode.class, FunctionDefinitionNode.class, NLangArray.class, Memo.class);
+
+    private AstCodec() {
+    }
+
+    public static void write(final List<ASTNode> statements, final DataOutputStream out) throws IOException {
+        new Writer(out).nodes(statements);
+    }
+
+    /**
+     * Reads statements written by {@link #write}, starting at the position of the buffer.
+     *
+     * @throws IOException when the data isn't a valid program
+     */
+    public static List<ASTNode> read(final ByteBuffer in) throws IOException {
+        return new Reader(in).nodes();
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int line;
+
+        Writer(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        void nodes(final List<ASTNode> nodes) throws IOException {
+            number(nodes.size());
+            for (ASTNode node : nodes) {
+                node(node);
+            }
+        }
+
+        void node(final ASTNode node) throws IOException {
+            switch (node) {
+                case null -> number(NULL);
+                case BinaryNode n -> {
+                    number(BINARY);
+                    node(n.left);
+                    node(n.right);
+                    token(n.operatorToken);
+                }
+                case BlockNode n -> {
+                    number(BLOCK);
+                    nodes(n.expressions);
+                }
+                case CallNode n -> {
+                    number(CALL);
+                    node(n.callee);
+                    token(n.name);
+                    nodes(n.arguments);
+                }
+                case ChildAccessNode n -> {
+                    number(CHILD_ACCESS);
+                    node(n.parent);
+                    node(n.index);
+                    token(n.indexToken);
+                }
+                case ContainerNode n -> {
+                    number(CONTAINER);
+                    number(n.fields.size());
+                    for (Map.Entry<ASTNode, ASTNode> field : n.fields.entrySet()) {
+                        node(field.getKey());
+                        node(field.getValue());
+                    }
+                }
+                case ForInLoopNode n -> {
+                    number(FOR_IN);
+                    token(n.loopVar);
+                    node(n.end);
+                    node(n.body);
+                    token(n.indexVar);
+                    token(n.endToken);
+                }
+                case ForLoopNode n -> {
+                    number(FOR);
+                    node(n.start);
+                    node(n.end);
+                    token(n.indexVariable);
+                    node(n.body);
+                    out.writeBoolean(n.isEqual);
+                }
+                case ParallelForNode n -> {
+                    number(PARALLEL_FOR);
+                    node(n.start);
+                    node(n.end);
+                    token(n.indexVariable);
+                    node(n.body);
+                    out.writeBoolean(n.isEqual);
+                    number(n.reductions.size());
+                    for (ParallelForNode.Reduction reduction : n.reductions) {
+                        token(reduction.variable());
+                        token(reduction.operator());
+                    }
+                }
+                case RangeNode n -> {
+                    number(RANGE);
+                    node(n.start);
+                    node(n.end);
+                    out.writeBoolean(n.inclusive);
+                    token(n.token);
+                }
+                case IfNode n -> {
+                    number(IF);
+                    node(n.condition);
+                    node(n.blockExpr);
+                }
+                case IndexAccessNode n -> {
+                    number(INDEX_ACCESS);
+                    node(n.parent);
+                    node(n.index);
+                    token(n.indexValue);
+                }
+                case IndexSetNode n -> {
+                    number(INDEX_SET);
+                    token(n.arrayName);
+                    node(n.arrayVariable);
+                    node(n.index);
+                    node(n.value);
+                }
+                case NumberNode n -> {
+                    number(NUMBER);
+                    out.writeDouble(n.value);
+                }
+                case PrintNode n -> {
+                    number(PRINT);
+                    nodes(n.expressions);
+                }
+                case ReturnNode n -> {
+                    number(RETURN);
+                    node(n.value);
+                }
+                case StringNode n -> {
+                    number(STRING);
+                    string(n.value);
+                }
+                case VarDeclarationNode n -> {
+                    number(VAR_DECLARATION);
+                    token(n.token);
+                    node(n.value);
+                }
+                case VariableNode n -> {
+                    number(VARIABLE);
+                    token(n.token);
+                }
+                case AssertNode n -> {
+                    number(ASSERT);
+                    token(n.token);
+                    node(n.expr);
+                    node(n.message);
+                }
+                case BooleanNode n -> {
+                    number(BOOLEAN);
+                    token(n.token);
+                }
+                case AssignmentNode n -> {
+                    number(ASSIGNMENT);
+                    token(n.token);
+                    node(n.value);
+                }
+                case UnaryNode n -> {
+                    number(UNARY);
+                    token(n.operator);
+                    node(n.expr);
+                }
+                case FunctionDefinitionNode n -> {
+                    number(FUNCTION);
+                    token(n.name);
+                    number(n.getParameters().size());
+                    for (Token parameter : n.getParameters()) {
+                        token(parameter);
+                    }
+                    nodes(n.body());
+                    number(n.memo() == null ? 0 : n.memo().declaredCapacity() + 1);
+                }
+                case NLangArray n -> {
+                    number(ARRAY);
+                    nodes(n.elements);
+                }
+                default -> throw new IllegalArgumentException(node.getClass().getSimpleName() + " can't be written");
+            }
+        }
+
+        void token(final Token token) throws IOException {
+            number(token.type.ordinal());
+            string(token.value);
+            signed(token.line - line);
+            number(token.start);
+            signed(token.end - token.start);
+            line = token.line;
+        }
+
+        /**
+         * 0 for null, 1 followed by the UTF-8 bytes for a new string, or 2 + the index of a string written before.
+         */
+        void string(final String value) throws IOException {
+            if (value == null) {
+                number(0);
+                return;
+            }
+            final Integer index = strings.get(value);
+            if (index != null) {
+                number(index + 2);
+                return;
+            }
+            strings.put(value, strings.size());
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            number(1);
+            number(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Number in 7 bit groups, the high bit marks that more follow.
+         */
+        void number(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        /**
+         * Number which may be negative, zigzag encoded so small ones of either sign take a byte.
+         */
+        void signed(final int value) throws IOException {
+            number((value << 1) ^ (value >> 31));
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private int line;
+
+        Reader(final ByteBuffer in) {
+            this.in = in;
+        }
+
+        List<ASTNode> nodes() throws IOException {
+            final int size = number();
+            final List<ASTNode> nodes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                nodes.add(node());
+            }
+            return nodes;
+        }
+
+        BlockNode block() throws IOException {
+            return (BlockNode) node();
+        }
+
+        ASTNode node() throws IOException {
+            final int tag = number();
+            return switch (tag) {
+                case NULL -> null;
+                case BINARY -> {
+                    final ASTNode left = node();
+                    final ASTNode right = node();
+                    yield new BinaryNode(left, right, token());
+                }
+                case BLOCK -> new BlockNode(nodes());
+                case CALL -> {
+                    final ASTNode callee = node();
+                    final Token name = token();
+                    yield new CallNode(callee, name, nodes());
+                }
+                case CHILD_ACCESS -> {
+                    final ASTNode parent = node();
+                    final ASTNode index = node();
+                    yield new ChildAccessNode(parent, index, token());
+                }
+                case CONTAINER -> {
+                    final int size = number();
+                    final Map<ASTNode, ASTNode> fields = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        final ASTNode key = node();
+                        fields.put(key, node());
+                    }
+                    yield new ContainerNode(fields);
+                }
+                case FOR_IN -> {
+                    final Token loopVar = token();
+                    final ASTNode end = node();
+                    final BlockNode body = block();
+                    final Token indexVar = token();
+                    yield new ForInLoopNode(loopVar, end, body, indexVar, token());
+                }
+                case FOR -> {
+                    final ASTNode start = node();
+                    final ASTNode end = node();
+                    final Token indexVariable = token();
+                    final BlockNode body = block();
+                    yield new ForLoopNode(start, end, indexVariable, body, in.get() != 0);
+                }
+                case PARALLEL_FOR -> {
+                    final ASTNode start = node();
+                    final ASTNode end = node();
+                    final Token indexVariable = token();
+                    final BlockNode body = block();
+                    final boolean isEqual = in.get() != 0;
+                    final int size = number();
+                    final List<ParallelForNode.Reduction> reductions = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        final Token variable = token();
+                        reductions.add(new ParallelForNode.Reduction(variable, token()));
+                    }
+                    yield new ParallelForNode(start, end, indexVariable, body, isEqual, reductions);
+                }
+                case RANGE -> {
+                    final ASTNode start = node();
+                    final ASTNode end = node();
+                    final boolean inclusive = in.get() != 0;
+                    yield new RangeNode(start, end, inclusive, token());
+                }
+                case IF -> {
+                    final ASTNode condition = node();
+                    yield new IfNode(condition, block());
+                }
+                case INDEX_ACCESS -> {
+                    final ASTNode parent = node();
+                    final ASTNode index = node();
+                    yield new IndexAccessNode(parent, index, token());
+                }
+                case INDEX_SET -> {
+                    final Token arrayName = token();
+                    final ASTNode arrayVariable = node();
+                    final ASTNode index = node();
+                    yield new IndexSetNode(arrayName, arrayVariable, index, node());
+                }
+                case NUMBER -> new NumberNode(in.getDouble());
+                case PRINT -> new PrintNode(nodes());
+                case RETURN -> new ReturnNode(node());
+                case STRING -> new StringNode(string());
+                case VAR_DECLARATION -> {
+                    final Token token = token();
+                    yield new VarDeclarationNode(token, node());
+                }
+                case VARIABLE -> new VariableNode(token());
+                case ASSERT -> {
+                    final Token token = token();
+                    final ASTNode expr = node();
+                    yield new AssertNode(token, expr, node());
+                }
+                case BOOLEAN -> new BooleanNode(token());
+                case ASSIGNMENT -> {
+                    final Token token = token();
+                    yield new AssignmentNode(token, node());
+                }
+                case UNARY -> {
+                    final Token operator = token();
+                    yield new UnaryNode(operator, node());
+                }
+                case FUNCTION -> {
+                    final Token name = token();
+                    final int arity = number();
+                    final List<Token> parameters = new ArrayList<>(arity);
+                    for (int i = 0; i < arity; i++) {
+                        parameters.add(token());
+                    }
+                    final List<ASTNode> body = nodes();
+                    final int capacity = number();
+                    yield new FunctionDefinitionNode(name, parameters, body,
+                            capacity == 0 ? null : new Memo(capacity - 1));
+                }
+                case ARRAY -> new NLangArray(nodes());
+                default -> throw new IOException("Unknown node tag " + tag);
+            };
+        }
+
+        Token token() throws IOException {
+            final int type = number();
+            if (type >= TOKEN_TYPES.length) {
+                throw new IOException("Unknown token type " + type);
+            }
+            final String value = string();
+            line += signed();
+            final int start = number();
+            return new Token(TOKEN_TYPES[type], value, line, start, start + signed());
+        }
+
+        String string() throws IOException {
+            final int kind = number();
+            if (kind == 0) {
+                return null;
+            }
+            if (kind > 1) {
+                if (kind - 2 >= strings.size()) {
+                    throw new IOException("Unknown string " + kind);
+                }
+                return strings.get(kind - 2);
+            }
+            final int length = number();
+            if (length > in.remaining()) {
+                throw new IOException("String past the end of the data");
+            }
+            final String value = new String(in.array(), in.arrayOffset() + in.position(), length,
+                    StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            strings.add(value);
+            return value;
+        }
+
+        int number() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = in.get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        int signed() {
+            final int value = number();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
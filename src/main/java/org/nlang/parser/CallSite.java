@@ -0,0 +1,45 @@
+package org.nlang.parser;
+
+import org.nlang.lexer.Token;
+
+/**
+ * Call of a global function by name. The function found on the first call is cached together with the version
+ * of the global function table it was found in, later calls only check that no function was defined since.
+ * The argument count is checked when the call gets bound to a function, not on every call.
+ */
+public final class CallSite {
+
+    private record Target(Environment globals, int version, ASTNode function) {
+    }
+
+    private final Token name;
+    private final int argumentCount;
+    private Target target;
+
+    public CallSite(final Token name, final int argumentCount) {
+        this.name = name;
+        this.argumentCount = argumentCount;
+    }
+
+    public Token name() {
+        return name;
+    }
+
+    public ASTNode function(final Environment globals) {
+        Target cached = target;
+        if (cached == null || cached.globals() != globals || cached.version() != globals.functionsVersion()) {
+            final ASTNode function = globals.getFunction(name);
+            if (function instanceof FunctionDefinitionNode definition) {
+                definition.checkArity(argumentCount);
+            }
+            cached = new Target(globals, globals.functionsVersion(), function);
+            target = cached;
+        }
+        return cached.function();
+    }
+
+    @Override
+    public String toString() {
+        return name.value;
+    }
+}
@@ -0,0 +1,10 @@
+package org.nlang.parser;
+
+/**
+ * Non-local control flow signalled by statements instead of a value. Blocks and loops stop running and pass
+ * it on until it reaches the function call it leaves, the value of a return is kept on the function's
+ * environment so no result object is needed.
+ */
+public enum Completion {
+    RETURN
+}
@@ -0,0 +1,60 @@
+package org.nlang.parser;
+
+import java.util.List;
+
+/**
+ * Iteration protocol of for-in loops. A cursor hands out the elements of a value one by one, so values can be
+ * walked without materializing them as a list. Values implementing {@link Source} provide their own cursor.
+ */
+public interface Cursor {
+
+    boolean hasNext();
+
+    Object next();
+
+    /**
+     * A value for-in loops can walk over.
+     */
+    interface Source {
+        Cursor cursor();
+    }
+
+    /**
+     * Walks a list by index. The size is checked on every step, elements added to the list by index
+     * assignment while it's being walked are visited too.
+     */
+    static Cursor of(final List<?> list) {
+        return new Cursor() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < list.size();
+            }
+
+            @Override
+            public Object next() {
+                return list.get(index++);
+            }
+        };
+    }
+
+    /**
+     * Walks a string character by character, handing out one character strings.
+     */
+    static Cursor of(final CharSequence str) {
+        return new Cursor() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < str.length();
+            }
+
+            @Override
+            public Object next() {
+                return NString.character(str.charAt(index++));
+            }
+        };
+    }
+}
@@ -7,62 +7,148 @@ import org.nlang.parser.builtins.TimeFunction;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Activation frame of a function call, block or loop. Locals live in a fixed size array at the slots the
+ * {@link Resolver} assigned to them. Only the global environment, the root of every chain, keeps variables
+ * and functions by name.
+ */
 public class Environment {
-    private final Map<String, Object> variables = new HashMap<>();
-    private final Map<String, ASTNode> functions = new HashMap<>();
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    private final Map<String, Object> variables;
+    private final Map<String, ASTNode> functions;
+    private final Map<Memo, Memo> memos;
     private final Environment parent;
+    private final Environment globals;
+    private final Object[] slots;
+    private Object returnValue;
+    private int functionsVersion;
 
     public Environment() {
-        this(null);
+        this.parent = null;
+        this.globals = this;
+        this.slots = NO_SLOTS;
+        this.variables = new HashMap<>();
+        this.functions = new HashMap<>();
+        this.memos = new ConcurrentHashMap<>();
 
         addFunction(new TimeFunction().getnLangFunction());
         addFunction(new LengthFunction().getnLangFunction());
     }
 
-    public Environment(final Environment parent) {
+    public Environment(final Environment parent, final int size) {
         this.parent = parent;
+        this.globals = parent.globals;
+        this.slots = size == 0 ? NO_SLOTS : new Object[size];
+        this.variables = null;
+        this.functions = null;
+        this.memos = null;
     }
 
     public Object getVariable(final Token token) {
-
-        if (variables.containsKey(token.value)) {
-            return variables.get(token.value);
+        final Map<String, Object> variables = globals.variables;
+        final Object value = variables.get(token.value);
+        if (value == null && !variables.containsKey(token.value)) {
+            throw Err.err("Undefined variable: " + token.value, token);
         }
-        if (parent != null) {
-            return parent.getVariable(token);
-        }
-        throw Err.err("Undefined variable: " + token.value, token);
+        return value;
     }
 
     public void assignVariable(final Token token, final Object value) {
-        if (variables.containsKey(token.value)) {
-            variables.put(token.value, value);
-            return;
-        }
-        if (parent != null) {
-            parent.assignVariable(token, value);
-            return;
+        final Map<String, Object> variables = globals.variables;
+        if (!variables.containsKey(token.value)) {
+            throw Err.err("Undefined variable: " + token.value, token);
         }
-        throw Err.err("Undefined variable: " + token.value, token);
+        variables.put(token.value, Operations.store(variables.get(token.value), value));
     }
 
     public void defineVariable(final Token token, final Object value) {
-        variables.put(token.value, value);
+        final Map<String, Object> variables = globals.variables;
+        variables.put(token.value, Operations.store(variables.get(token.value), value));
     }
 
-    public void addFunction(final FunctionDefinitionNode function) {
-        functions.put(String.valueOf(function.name.value), function);
+    public boolean isDefined(final String name) {
+        return globals.variables.containsKey(name);
     }
 
-    public ASTNode getFunction(final Token token) {
-        if (functions.containsKey(token.value)) {
-            return functions.get(token.value);
+    public Object getAt(final int depth, final int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    /**
+     * Binds a parameter of a new call environment.
+     */
+    void bind(final int slot, final Object value) {
+        slots[slot] = Operations.share(value);
+    }
+
+    public void assignAt(final int depth, final int slot, final Object value) {
+        final Object[] slots = ancestor(depth).slots;
+        slots[slot] = Operations.store(slots[slot], value);
+    }
+
+    /**
+     * Keeps the value returned by the function this environment belongs to.
+     */
+    public Completion returnWith(final Object value) {
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    public Object returnValue() {
+        return returnValue;
+    }
+
+    Environment ancestor(final int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.parent;
         }
-        if (parent != null) {
-            return parent.getFunction(token);
+        return environment;
+    }
+
+    Environment globals() {
+        return globals;
+    }
+
+    public final void addFunction(final FunctionDefinitionNode function) {
+        final ASTNode replaced = globals.functions.put(String.valueOf(function.name.value), function);
+        if (replaced instanceof FunctionDefinitionNode previous && previous != function) {
+            previous.invalidate();
+        }
+        globals.functionsVersion++;
+    }
+
+    /**
+     * Whether calling the function by its name reaches the function itself.
+     */
+    boolean defines(final FunctionDefinitionNode function) {
+        return globals.functions.get(function.name.value) == function;
+    }
+
+    /**
+     * Changes whenever a global function is defined, see {@link CallSite}.
+     */
+    int functionsVersion() {
+        return globals.functionsVersion;
+    }
+
+    /**
+     * Results cached by a {@code memo func} in the program running on this environment. The function carries
+     * the declaration of its cache, every run of the program fills a cache of its own.
+     */
+    public Memo memo(final Memo declaration) {
+        return globals.memos.computeIfAbsent(declaration, Memo::empty);
+    }
+
+    public ASTNode getFunction(final Token token) {
+        final ASTNode function = globals.functions.get(token.value);
+        if (function == null) {
+            throw Err.err("function doesn't exist", token);
         }
-        throw Err.err("function doesn't exist", token);
+        return function;
     }
 
-}
\ No newline at end of file
+}
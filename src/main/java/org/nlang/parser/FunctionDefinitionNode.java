@@ -2,44 +2,200 @@ package org.nlang.parser;
 
 import org.nlang.err.Err;
 import org.nlang.lexer.Token;
+import org.nlang.vm.Compiler;
+
 import java.util.List;
 
+/**
+ * Function of a program. Calls run its body in the tree walker until the function gets hot: every call and
+ * every loop iteration in its body heats it up, and past a threshold it's compiled to JVM bytecode by
+ * {@link JvmCompiler}. Calls then run the compiled code, unless their arguments don't suit it.
+ */
 public class FunctionDefinitionNode extends ASTNode {
+    private static final int TIER_UP_THRESHOLD = Integer.getInteger("nlang.tierUpThreshold", 1000);
+
     private final List<Token> parameters;
     private final List<ASTNode> body;
     public final Token name;
+    private int frameSize;
+    private int heat;
+    private boolean tieredUp;
+    private volatile NativeCode nativeCode;
+    private final Memo memo;
 
     public FunctionDefinitionNode(Token name, List<Token> parameters, List<ASTNode> body) {
+        this(name, parameters, body, null);
+    }
+
+    public FunctionDefinitionNode(Token name, List<Token> parameters, List<ASTNode> body, Memo memo) {
         this.parameters = parameters;
         this.name = name;
         this.body = body;
+        this.frameSize = parameters.size();
+        this.memo = memo;
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
+    public Object evaluate(Environment env) {
         throw new UnsupportedOperationException("functions can't be evaluated in NLang");
     }
 
-    public EvalResult call(List<Object> arguments, Environment environment) {
-        if (arguments.size() != parameters.size()) {
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new FunctionDefinitionNode(name, parameters, rewriter.statements(body), memo);
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        frameSize = resolver.function(this, parameters, body);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        compiler.function(this, parameters, body);
+    }
+
+    public List<Token> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Declaration of the result cache of a {@code memo func}, null for other functions. Its results are cached
+     * by {@link Environment#memo}.
+     */
+    public Memo memo() {
+        return memo;
+    }
+
+    public int arity() {
+        return parameters.size();
+    }
+
+    /**
+     * Checks the argument count of a call once, when the call gets bound to this function.
+     */
+    public void checkArity(int argumentCount) {
+        if (argumentCount != parameters.size()) {
             throw Err.err("Argument count mismatch in function call: ", name);
         }
+    }
 
-        final Environment localEnvironment = new Environment(environment);
+    public Object call(List<Object> arguments, Environment environment) {
+        checkArity(arguments.size());
+        final Environment localEnvironment = frame(environment);
         for (int i = 0; i < parameters.size(); i++) {
-            localEnvironment.defineVariable(parameters.get(i), arguments.get(i));
+            localEnvironment.bind(i, arguments.get(i));
         }
-        EvalResult result;
-        for (ASTNode expr : body) {
-            result = expr.evaluate(localEnvironment);
-            if (expr instanceof ReturnNode) {
-                return result;
+        return run(localEnvironment);
+    }
+
+    /**
+     * Environment of a call, the parameters are bound to its first slots.
+     */
+    Environment frame(Environment closure) {
+        return new Environment(closure, frameSize);
+    }
+
+    /**
+     * Runs a call, memoized functions first look for the result of an earlier call with the same arguments.
+     */
+    Object run(Environment frame) {
+        if (memo == null) {
+            return runCalls(frame);
+        }
+        final Object[] arguments = new Object[parameters.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = frame.getAt(0, i);
+        }
+        final Object key = Memo.key(arguments);
+        final Memo memo = frame.globals().memo(this.memo);
+        Object result = memo.get(key);
+        if (result == Memo.MISSING) {
+            result = runCalls(frame);
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a call, then the calls it returns in tail position one after another, see {@link TailCall}.
+     */
+    private Object runCalls(Environment frame) {
+        FunctionDefinitionNode function = this;
+        Object result = activate(frame);
+        while (result instanceof TailCall call) {
+            final Object[] arguments = call.arguments();
+            if (call.function() == function && frame.ancestor(1) == call.scope()) {
+                for (int i = 0; i < arguments.length; i++) {
+                    frame.assignAt(0, i, arguments[i]);
+                }
+            } else {
+                function = call.function();
+                frame = function.frame(call.scope());
+                for (int i = 0; i < arguments.length; i++) {
+                    frame.bind(i, arguments[i]);
+                }
             }
-            if (result != null && result.isReturn) {
+            result = function.activate(frame);
+        }
+        return result;
+    }
+
+    private Object activate(Environment frame) {
+        final NativeCode code = nativeCode;
+        if (code != null) {
+            final Object result = code.invoke(frame);
+            if (result != NativeCode.UNSUPPORTED_ARGUMENTS) {
                 return result;
             }
+        } else if (++heat >= TIER_UP_THRESHOLD && !tieredUp) {
+            tierUp(frame.globals());
+        }
+        for (ASTNode expr : body) {
+            if (expr.evaluate(frame) == Completion.RETURN) {
+                return frame.returnValue();
+            }
         }
         return null;
     }
 
+    /**
+     * Compiles the function, only once even when runs of the program on several threads make it hot at the
+     * same time, and not after it was invalidated.
+     */
+    private synchronized void tierUp(Environment globals) {
+        if (!tieredUp) {
+            tieredUp = true;
+            nativeCode = JvmCompiler.compile(this, globals);
+        }
+    }
+
+    /**
+     * Whether the function got hot and calls run its compiled code.
+     */
+    public boolean isCompiled() {
+        return nativeCode != null;
+    }
+
+    /**
+     * Heats the function up by the iterations a loop in its body made, a function spending its time in a loop
+     * gets compiled on one of its next calls.
+     */
+    void loopIterations(int count) {
+        heat += count;
+    }
+
+    /**
+     * The function was replaced by another one of the same name, so its compiled code, which calls itself
+     * directly, must not run anymore.
+     */
+    synchronized void invalidate() {
+        tieredUp = true;
+        nativeCode = null;
+    }
+
+    List<ASTNode> body() {
+        return body;
+    }
+
 }
@@ -0,0 +1,678 @@
+package org.nlang.parser;
+
+import org.nlang.lexer.Token;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a hot function to a hidden JVM class, so HotSpot can compile it to machine code like any Java method.
+ * Only numeric functions are supported: every parameter, local and result is a number kept unboxed in a JVM
+ * local, the statements are declarations, assignments, ifs, counting loops and returns, and the only calls are
+ * calls of the function itself, which become direct calls of the generated method, or a jump back to its start
+ * when their result is returned. Anything else leaves the function to the tree walker.
+ * The generated class has a static {@code body} method taking and returning doubles and an
+ * {@link NativeCode#invoke} bridge which unboxes the arguments from the call frame. Class files of version 49
+ * are written, they are verified without stack map frames, which keeps this assembler small.
+ * The class file is assembled here rather than with {@code java.lang.classfile} because that API is still a
+ * preview in JDK 22, which the project builds with, and using it would require {@code --enable-preview} to
+ * compile and run NLang.
+ */
+final class JvmCompiler {
+
+    private static final String CLASS_NAME = "org/nlang/parser/NativeFunction";
+    private static final String ENVIRONMENT = "org/nlang/parser/Environment";
+    private static final String NATIVE_CODE = "org/nlang/parser/NativeCode";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String OBJECT = "java/lang/Object";
+
+    /**
+     * The function uses something the compiler doesn't support.
+     */
+    private static final class UnsupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final FunctionDefinitionNode function;
+    private final Environment globals;
+    private final ConstantPool pool = new ConstantPool();
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private Code code;
+    private int nextLocal;
+    private final Label start = new Label();
+
+    private JvmCompiler(final FunctionDefinitionNode function, final Environment globals) {
+        this.function = function;
+        this.globals = globals;
+    }
+
+    /**
+     * Compiles the function, returns null when it can't be compiled.
+     */
+    static NativeCode compile(final FunctionDefinitionNode function, final Environment globals) {
+        try {
+            final byte[] bytes = new JvmCompiler(function, globals).classFile();
+            final Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (NativeCode) type.getDeclaredConstructor().newInstance();
+        } catch (UnsupportedException | LinkageError | ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private byte[] classFile() {
+        final List<Token> parameters = function.getParameters();
+        final String descriptor = "(" + "D".repeat(parameters.size()) + ")D";
+        final byte[] body = body(parameters);
+        final byte[] invoke = invoke(parameters.size(), descriptor);
+        final byte[] constructor = constructor();
+
+        final ByteVector methods = new ByteVector();
+        method(methods, 0x0001, "<init>", "()V", constructor);
+        method(methods, 0x0001, "invoke", "(L" + ENVIRONMENT + ";)L" + OBJECT + ";", invoke);
+        method(methods, 0x000A, "body", descriptor, body);
+        final int thisClass = pool.classRef(CLASS_NAME);
+        final int superClass = pool.classRef(OBJECT);
+        final int nativeCode = pool.classRef(NATIVE_CODE);
+
+        final ByteVector out = new ByteVector();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);
+        out.u2(pool.count);
+        out.bytes(pool.bytes);
+        out.u2(0x0031);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);
+        out.u2(nativeCode);
+        out.u2(0);
+        out.u2(3);
+        out.bytes(methods);
+        out.u2(0);
+        return out.toByteArray();
+    }
+
+    private void method(final ByteVector out, final int access, final String name, final String descriptor,
+                        final byte[] codeAttribute) {
+        out.u2(access);
+        out.u2(pool.utf8(name));
+        out.u2(pool.utf8(descriptor));
+        out.u2(1);
+        out.u2(pool.utf8("Code"));
+        out.u4(codeAttribute.length);
+        out.bytes(codeAttribute);
+    }
+
+    private byte[] constructor() {
+        code = new Code(1);
+        code.op(0x2A, 1);
+        code.op2(0xB7, pool.methodRef(OBJECT, "<init>", "()V"), -1);
+        code.op(0xB1, 0);
+        return code.attribute();
+    }
+
+    /**
+     * The bridge reads the arguments from the frame, bails out when one isn't a number, and boxes the result.
+     */
+    private byte[] invoke(final int arity, final String descriptor) {
+        code = new Code(3 + 2 * arity);
+        final int unsupported = pool.fieldRef(NATIVE_CODE, "UNSUPPORTED_ARGUMENTS", "L" + OBJECT + ";");
+        final int doubleClass = pool.classRef(DOUBLE);
+        for (int i = 0; i < arity; i++) {
+            final Label number = new Label();
+            code.op(0x2B, 1);
+            code.op(0x03, 1);
+            code.intConstant(i);
+            code.op2(0xB6, pool.methodRef(ENVIRONMENT, "getAt", "(II)L" + OBJECT + ";"), -2);
+            code.op1(0x3A, 2, -1);
+            code.op1(0x19, 2, 1);
+            code.op2(0xC1, doubleClass, 0);
+            code.jump(0x9A, number, -1);
+            code.op2(0xB2, unsupported, 1);
+            code.op(0xB0, -1);
+            code.bind(number);
+            code.op1(0x19, 2, 1);
+            code.op2(0xC0, doubleClass, 0);
+            code.op2(0xB6, pool.methodRef(DOUBLE, "doubleValue", "()D"), 1);
+            code.op1(0x39, 3 + 2 * i, -2);
+        }
+        for (int i = 0; i < arity; i++) {
+            code.op1(0x18, 3 + 2 * i, 2);
+        }
+        code.op2(0xB8, pool.methodRef(CLASS_NAME, "body", descriptor), 2 - 2 * arity);
+        code.op2(0xB8, pool.methodRef(DOUBLE, "valueOf", "(D)L" + DOUBLE + ";"), -1);
+        code.op(0xB0, -1);
+        return code.attribute();
+    }
+
+    /**
+     * The function's statements, the last one has to be a return so no path falls off the end. Memoized
+     * functions stay in the tree walker, direct self calls would bypass their cache.
+     */
+    private byte[] body(final List<Token> parameters) {
+        final List<ASTNode> statements = function.body();
+        if (function.memo() != null || statements.isEmpty() || !(statements.getLast() instanceof ReturnNode)) {
+            throw new UnsupportedException();
+        }
+        code = new Code(0);
+        scopes.push(new HashMap<>());
+        parameters.forEach(this::declare);
+        code.bind(start);
+        statements(statements);
+        scopes.pop();
+        return code.attribute();
+    }
+
+    /**
+     * Compiles statements up to the first return, whatever follows it can't run.
+     */
+    private void statements(final List<ASTNode> statements) {
+        for (ASTNode statement : statements) {
+            statement(statement);
+            if (statement instanceof ReturnNode) {
+                return;
+            }
+        }
+    }
+
+    private void statement(final ASTNode node) {
+        switch (node) {
+            case VarDeclarationNode declaration -> {
+                number(declaration.value);
+                code.op1(0x39, declare(declaration.token), -2);
+            }
+            case AssignmentNode assignment -> {
+                number(assignment.value);
+                code.op1(0x39, local(assignment.token), -2);
+            }
+            case IfNode ifNode -> {
+                final Label end = new Label();
+                condition(ifNode.condition);
+                code.jump(0x99, end, -1);
+                scopes.push(new HashMap<>());
+                statements(ifNode.blockExpr.expressions);
+                scopes.pop();
+                code.bind(end);
+            }
+            case ForLoopNode loop -> loop(loop);
+            case ReturnNode returnNode -> {
+                if (returnNode.value == null) {
+                    throw new UnsupportedException();
+                }
+                if (returnNode.value instanceof CallNode call) {
+                    tailCall(call);
+                    return;
+                }
+                number(returnNode.value);
+                code.op(0xAF, -2);
+            }
+            case CallNode call -> {
+                selfCall(call);
+                code.op(0x58, -2);
+            }
+            case null, default -> throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * A range loop counts in an int local, the loop variable gets the counter's value on every iteration.
+     */
+    private void loop(final ForLoopNode loop) {
+        final int counter = allocate(1);
+        final int end = allocate(1);
+        number(loop.start);
+        code.op(0x8E, -1);
+        code.op1(0x36, counter, -1);
+        number(loop.end);
+        code.op(0x8E, -1);
+        if (loop.isEqual) {
+            code.op(0x04, 1);
+            code.op(0x60, -1);
+        }
+        code.op1(0x36, end, -1);
+
+        final Label head = new Label();
+        final Label exit = new Label();
+        code.bind(head);
+        code.op1(0x15, counter, 1);
+        code.op1(0x15, end, 1);
+        code.jump(0xA2, exit, -2);
+        scopes.push(new HashMap<>());
+        final int index = declare(loop.indexVariable);
+        code.op1(0x15, counter, 1);
+        code.op(0x87, 1);
+        code.op1(0x39, index, -2);
+        statements(loop.body.expressions);
+        scopes.pop();
+        code.iinc(counter);
+        code.jump(0xA7, head, 0);
+        code.bind(exit);
+    }
+
+    /**
+     * Leaves a double on the stack.
+     */
+    private void number(final ASTNode node) {
+        switch (node) {
+            case NumberNode number -> code.doubleConstant(pool, number.value);
+            case VariableNode variable -> code.op1(0x18, local(variable.token), 2);
+            case BinaryNode binary when isArithmetic(binary.operator) -> {
+                number(binary.left);
+                number(binary.right);
+                final int opcode = switch (binary.operator) {
+                    case PLUS -> 0x63;
+                    case MINUS -> 0x67;
+                    case MULTIPLY -> 0x6B;
+                    default -> 0x6F;
+                };
+                code.op(opcode, -2);
+            }
+            case UnaryNode unary when unary.operator.type == Token.TokenType.MINUS -> {
+                number(unary.expr);
+                code.op(0x77, 0);
+            }
+            case CallNode call -> selfCall(call);
+            case null, default -> throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * Leaves 1 or 0 on the stack. Both operands of {@code &&} and {@code ||} are evaluated, like in the tree
+     * walker.
+     */
+    private void condition(final ASTNode node) {
+        switch (node) {
+            case BooleanNode bool -> code.op(bool.token.type == Token.TokenType.TRUE ? 0x04 : 0x03, 1);
+            case UnaryNode unary when unary.operator.type == Token.TokenType.NOT -> {
+                condition(unary.expr);
+                code.op(0x04, 1);
+                code.op(0x82, -1);
+            }
+            case BinaryNode binary -> comparison(binary);
+            case null, default -> throw new UnsupportedException();
+        }
+    }
+
+    private void comparison(final BinaryNode binary) {
+        switch (binary.operator) {
+            case AND, OR -> {
+                condition(binary.left);
+                condition(binary.right);
+                code.op(binary.operator == Token.TokenType.AND ? 0x7E : 0x80, -1);
+            }
+            case SMALLER -> {
+                number(binary.left);
+                number(binary.right);
+                code.op(0x98, -3);
+                materialize(0x9B);
+            }
+            case GREATER -> {
+                number(binary.left);
+                number(binary.right);
+                code.op(0x97, -3);
+                materialize(0x9D);
+            }
+            case EQUAL, NOT_EQUAL -> {
+                final boolean equal = binary.operator == Token.TokenType.EQUAL;
+                if (isCondition(binary.left) && isCondition(binary.right)) {
+                    condition(binary.left);
+                    condition(binary.right);
+                    materialize(equal ? 0x9F : 0xA0);
+                    return;
+                }
+                final int bits = pool.methodRef(DOUBLE, "doubleToLongBits", "(D)J");
+                number(binary.left);
+                code.op2(0xB8, bits, 0);
+                number(binary.right);
+                code.op2(0xB8, bits, 0);
+                code.op(0x94, -3);
+                materialize(equal ? 0x99 : 0x9A);
+            }
+            case null, default -> throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * Turns the branch of a comparison into 1 when it's taken and 0 otherwise.
+     */
+    private void materialize(final int branch) {
+        final Label taken = new Label();
+        final Label end = new Label();
+        code.jump(branch, taken, branch == 0x9F || branch == 0xA0 ? -2 : -1);
+        code.op(0x03, 1);
+        code.jump(0xA7, end, 0);
+        code.bind(taken);
+        code.op(0x04, 1);
+        code.bind(end);
+    }
+
+    private static boolean isCondition(final ASTNode node) {
+        return switch (node) {
+            case BooleanNode _ -> true;
+            case UnaryNode unary -> unary.operator.type == Token.TokenType.NOT;
+            case BinaryNode binary -> !isArithmetic(binary.operator);
+            default -> false;
+        };
+    }
+
+    private static boolean isArithmetic(final Token.TokenType operator) {
+        return switch (operator) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * A call of the function itself, by a local binding or by its global name when that still names it.
+     */
+    private void selfCall(final CallNode call) {
+        checkSelfCall(call);
+        call.arguments.forEach(this::number);
+        final String descriptor = "(" + "D".repeat(function.arity()) + ")D";
+        code.op2(0xB8, pool.methodRef(CLASS_NAME, "body", descriptor), 2 - 2 * function.arity());
+    }
+
+    private void checkSelfCall(final CallNode call) {
+        if (call.callee != null || call.arguments.size() != function.arity()) {
+            throw new UnsupportedException();
+        }
+        final FunctionDefinitionNode target = call.localFunction();
+        final boolean self = target == null
+                ? call.name.value.equals(function.name.value) && globals.defines(function)
+                : target == function;
+        if (!self) {
+            throw new UnsupportedException();
+        }
+    }
+
+    /**
+     * A self call in tail position stores the arguments in the parameters and jumps back to the start.
+     */
+    private void tailCall(final CallNode call) {
+        checkSelfCall(call);
+        call.arguments.forEach(this::number);
+        for (int i = function.arity() - 1; i >= 0; i--) {
+            code.op1(0x39, 2 * i, -2);
+        }
+        code.jump(0xA7, start, 0);
+    }
+
+    /**
+     * Gives a variable a double local in the innermost scope, declaring a name twice in a scope reuses it.
+     */
+    private int declare(final Token name) {
+        final Map<String, Integer> scope = scopes.peek();
+        return scope.computeIfAbsent(name.value, _ -> allocate(2));
+    }
+
+    private int local(final Token name) {
+        for (Map<String, Integer> scope : scopes) {
+            final Integer local = scope.get(name.value);
+            if (local != null) {
+                return local;
+            }
+        }
+        throw new UnsupportedException();
+    }
+
+    private int allocate(final int size) {
+        final int local = nextLocal;
+        nextLocal += size;
+        if (nextLocal > 255) {
+            throw new UnsupportedException();
+        }
+        code.maxLocals = Math.max(code.maxLocals, nextLocal);
+        return local;
+    }
+
+    private static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    /**
+     * Bytecode of a method, keeping track of the operand stack depth it needs.
+     */
+    private static final class Code {
+        private final ByteVector bytes = new ByteVector();
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        Code(final int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        void op(final int opcode, final int stackChange) {
+            bytes.u1(opcode);
+            adjust(stackChange);
+        }
+
+        void op1(final int opcode, final int operand, final int stackChange) {
+            bytes.u1(opcode);
+            bytes.u1(operand);
+            adjust(stackChange);
+        }
+
+        void op2(final int opcode, final int operand, final int stackChange) {
+            bytes.u1(opcode);
+            bytes.u2(operand);
+            adjust(stackChange);
+        }
+
+        void iinc(final int local) {
+            bytes.u1(0x84);
+            bytes.u1(local);
+            bytes.u1(1);
+        }
+
+        void intConstant(final int value) {
+            if (value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value <= Byte.MAX_VALUE) {
+                op1(0x10, value, 1);
+            } else {
+                op2(0x11, value, 1);
+            }
+        }
+
+        void doubleConstant(final ConstantPool pool, final double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(0x0E, 2);
+            } else if (value == 1.0) {
+                op(0x0F, 2);
+            } else {
+                op2(0x14, pool.doubleConstant(value), 2);
+            }
+        }
+
+        void jump(final int opcode, final Label target, final int stackChange) {
+            final int at = bytes.size();
+            op2(opcode, 0, stackChange);
+            target.stack = stack;
+            if (target.position >= 0) {
+                patch(at, target.position);
+            } else {
+                target.jumps.add(at);
+            }
+        }
+
+        void bind(final Label label) {
+            label.position = bytes.size();
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+            for (int at : label.jumps) {
+                patch(at, label.position);
+            }
+        }
+
+        private void patch(final int at, final int target) {
+            final int offset = target - at;
+            if (offset != (short) offset) {
+                throw new UnsupportedException();
+            }
+            bytes.set(at + 1, offset >> 8);
+            bytes.set(at + 2, offset);
+        }
+
+        private void adjust(final int stackChange) {
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        byte[] attribute() {
+            if (bytes.size() > 0xFFFF) {
+                throw new UnsupportedException();
+            }
+            final ByteVector out = new ByteVector();
+            out.u2(maxStack);
+            out.u2(maxLocals);
+            out.u4(bytes.size());
+            out.bytes(bytes);
+            out.u2(0);
+            out.u2(0);
+            return out.toByteArray();
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteVector bytes = new ByteVector();
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return entry("U" + value, 1, () -> {
+                bytes.u1(1);
+                bytes.utf8(value);
+            });
+        }
+
+        int classRef(final String name) {
+            final int utf8 = utf8(name);
+            return entry("C" + name, 1, () -> {
+                bytes.u1(7);
+                bytes.u2(utf8);
+            });
+        }
+
+        int doubleConstant(final double value) {
+            final long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 2, () -> {
+                bytes.u1(6);
+                bytes.u4((int) (bits >>> 32));
+                bytes.u4((int) bits);
+            });
+        }
+
+        int fieldRef(final String owner, final String name, final String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        int methodRef(final String owner, final String name, final String descriptor) {
+            return member(10, owner, name, descriptor);
+        }
+
+        private int member(final int tag, final String owner, final String name, final String descriptor) {
+            final int ownerClass = classRef(owner);
+            final int nameUtf8 = utf8(name);
+            final int descriptorUtf8 = utf8(descriptor);
+            final int nameAndType = entry("N" + name + ":" + descriptor, 1, () -> {
+                bytes.u1(12);
+                bytes.u2(nameUtf8);
+                bytes.u2(descriptorUtf8);
+            });
+            return entry(tag + owner + "." + name + ":" + descriptor, 1, () -> {
+                bytes.u1(tag);
+                bytes.u2(ownerClass);
+                bytes.u2(nameAndType);
+            });
+        }
+
+        private int entry(final String key, final int size, final Runnable write) {
+            final Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            write.run();
+            entries.put(key, count);
+            count += size;
+            return count - size;
+        }
+    }
+
+    private static final class ByteVector {
+        private byte[] data = new byte[256];
+        private int size;
+
+        void u1(final int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) value;
+        }
+
+        void u2(final int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(final int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void utf8(final String value) {
+            final ByteVector encoded = new ByteVector();
+            for (char c : value.toCharArray()) {
+                if (c >= 1 && c < 0x80) {
+                    encoded.u1(c);
+                } else if (c < 0x800) {
+                    encoded.u1(0xC0 | c >> 6);
+                    encoded.u1(0x80 | c & 0x3F);
+                } else {
+                    encoded.u1(0xE0 | c >> 12);
+                    encoded.u1(0x80 | c >> 6 & 0x3F);
+                    encoded.u1(0x80 | c & 0x3F);
+                }
+            }
+            u2(encoded.size);
+            bytes(encoded);
+        }
+
+        void bytes(final ByteVector other) {
+            for (int i = 0; i < other.size; i++) {
+                u1(other.data[i]);
+            }
+        }
+
+        void bytes(final byte[] other) {
+            for (byte b : other) {
+                u1(b);
+            }
+        }
+
+        void set(final int at, final int value) {
+            data[at] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
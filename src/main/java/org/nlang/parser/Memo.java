@@ -0,0 +1,121 @@
+package org.nlang.parser;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of a function declared with {@code memo func}, keyed on its argument values. The cache holds at most
+ * its capacity of results and evicts the least recently used one when it's full. Keys and results are shared,
+ * so neither the caller nor later callers can change them in place. The function keeps the cache it was
+ * declared with, runs of the program fill their own copies of it, see {@link Environment#memo}.
+ */
+public final class Memo {
+
+    /**
+     * Returned by {@link #get} when the arguments have no cached result.
+     */
+    public static final Object MISSING = new Object();
+
+    /**
+     * Capacity of {@code memo func}, {@code memo(n) func} sets it per function.
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("nlang.memoCapacity", 1000);
+
+    /**
+     * Declared capacity of {@code memo func} without a size, it holds {@link #DEFAULT_CAPACITY} results of the
+     * run using it rather than of the run which parsed it.
+     */
+    public static final int DEFAULT = 0;
+
+    private record Key(Object[] values) {
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key key && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    private final int declared;
+    private final int capacity;
+    private final Map<Key, Object> results;
+    private long hits;
+    private long misses;
+
+    public Memo(final int declared) {
+        this.declared = declared;
+        this.capacity = declared == DEFAULT ? DEFAULT_CAPACITY : declared;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+                return size() > Memo.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * New cache of the same capacity.
+     */
+    public Memo empty() {
+        return new Memo(declared);
+    }
+
+    /**
+     * Key of a call with the given arguments. Strings are compared by content whatever their representation.
+     */
+    public static Object key(final Object[] arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] instanceof NString string) {
+                arguments[i] = string.toString();
+            }
+        }
+        return new Key(arguments);
+    }
+
+    /**
+     * The cached result of the call with the key, or {@link #MISSING}.
+     */
+    public synchronized Object get(final Object key) {
+        if (!results.containsKey(key)) {
+            misses++;
+            return MISSING;
+        }
+        hits++;
+        return results.get(key);
+    }
+
+    public synchronized void put(final Object key, final Object result) {
+        for (Object value : ((Key) key).values) {
+            Operations.share(value);
+        }
+        results.put((Key) key, Operations.share(result));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Capacity written in the source, {@link #DEFAULT} when it's left out.
+     */
+    public int declaredCapacity() {
+        return declared;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
@@ -1,6 +1,7 @@
 package org.nlang.parser;
 
-import java.util.ArrayList;
+import org.nlang.vm.Compiler;
+
 import java.util.List;
 
 public class NLangArray extends ASTNode {
@@ -12,11 +13,27 @@ public class NLangArray extends ASTNode {
     }
 
     @Override
-    public EvalResult evaluate(Environment env) {
-        List<Object> result = new ArrayList<>();
+    public Object evaluate(Environment env) {
+        NList result = new NList();
         for (ASTNode element : elements) {
-            result.add(element.evaluate(env).result);
+            result.add(element.evaluate(env));
         }
-        return new EvalResult(result);
+        return result;
+    }
+
+    @Override
+    ASTNode transform(Optimizer.Rewriter rewriter) {
+        return new NLangArray(rewriter.expressions(elements));
+    }
+
+    @Override
+    public void resolve(Resolver resolver) {
+        resolver.resolveAll(elements);
+    }
+
+    @Override
+    public void compile(Compiler compiler) {
+        elements.forEach(compiler::expression);
+        compiler.list(elements.size());
     }
 }
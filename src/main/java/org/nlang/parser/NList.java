@@ -0,0 +1,234 @@
+package org.nlang.parser;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * List value of NLang.
+ * Every variable, parameter, list element, object field or running for-in loop holding a list counts as an
+ * owner of it. {@code add} and {@code remove} change a list with a single owner in place, a list which can be
+ * observed through another owner is copied first so the methods keep working on values. The owner count
+ * never goes down, a list shared once stays shared.
+ * A list holding only numbers keeps them unboxed in a {@code double[]}, storing anything else widens it to
+ * an {@code Object[]} for good.
+ */
+public final class NList extends AbstractList<Object> implements RandomAccess {
+
+    private static final double[] EMPTY_NUMBERS = new double[0];
+
+    private double[] numbers;
+    private Object[] elements;
+    private int size;
+    private int owners;
+
+    public NList() {
+        this.numbers = EMPTY_NUMBERS;
+    }
+
+    public NList(final Collection<?> values) {
+        if (values instanceof NList list && list.numbers != null) {
+            this.numbers = Arrays.copyOf(list.numbers, list.size);
+            this.size = list.size;
+            return;
+        }
+        final Object[] copy = values.toArray();
+        this.size = copy.length;
+        if (allNumbers(copy)) {
+            this.numbers = new double[size];
+            for (int i = 0; i < size; i++) {
+                numbers[i] = (Double) copy[i];
+            }
+            return;
+        }
+        this.elements = copy;
+        for (Object element : elements) {
+            Operations.share(element);
+        }
+    }
+
+    private static boolean allNumbers(final Object[] values) {
+        for (Object value : values) {
+            if (!(value instanceof Double)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records one more place holding this list.
+     */
+    public void share() {
+        if (owners < 2) {
+            owners++;
+        }
+    }
+
+    public boolean isShared() {
+        return owners > 1;
+    }
+
+    /**
+     * Whether the elements are stored unboxed, such a list only holds numbers.
+     */
+    public boolean isNumeric() {
+        return numbers != null;
+    }
+
+    @Override
+    public Object get(final int index) {
+        Objects.checkIndex(index, size);
+        return numbers != null ? (Object) numbers[index] : elements[index];
+    }
+
+    /**
+     * Reads an element of a numeric list without boxing it, see {@link #isNumeric()}.
+     */
+    public double getDouble(final int index) {
+        Objects.checkIndex(index, size);
+        return numbers[index];
+    }
+
+    @Override
+    public Object set(final int index, final Object element) {
+        Objects.checkIndex(index, size);
+        if (numbers != null) {
+            final double previous = numbers[index];
+            if (element instanceof Double d) {
+                numbers[index] = d;
+                return previous;
+            }
+            widen(numbers.length);
+        }
+        final Object previous = elements[index];
+        elements[index] = Operations.store(previous, element);
+        return previous;
+    }
+
+    /**
+     * Stores a number, a numeric list keeps it unboxed.
+     */
+    public void setDouble(final int index, final double value) {
+        if (numbers == null) {
+            set(index, value);
+            return;
+        }
+        Objects.checkIndex(index, size);
+        numbers[index] = value;
+    }
+
+    @Override
+    public Object[] toArray() {
+        if (numbers != null) {
+            final Object[] boxed = new Object[size];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = numbers[i];
+            }
+            return boxed;
+        }
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(final Object element) {
+        if (numbers != null) {
+            if (element instanceof Double d) {
+                if (size == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, grown());
+                }
+                numbers[size++] = d;
+                modCount++;
+                return true;
+            }
+            widen(size == numbers.length ? grown() : numbers.length);
+        } else if (size == elements.length) {
+            elements = Arrays.copyOf(elements, grown());
+        }
+        elements[size++] = Operations.share(element);
+        modCount++;
+        return true;
+    }
+
+    private int grown() {
+        return Math.max(8, size + (size >> 1));
+    }
+
+    private void widen(final int capacity) {
+        elements = new Object[capacity];
+        for (int i = 0; i < size; i++) {
+            elements[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public int indexOf(final Object value) {
+        if (numbers != null) {
+            if (value instanceof Double d) {
+                final long bits = Double.doubleToLongBits(d);
+                for (int i = 0; i < size; i++) {
+                    if (Double.doubleToLongBits(numbers[i]) == bits) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            final Object element = elements[i];
+            if (value == null ? element == null : element != null && Operations.equal(value, element)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the first element equal to the value, if there is one.
+     */
+    public void removeValue(final Object value) {
+        final int index = indexOf(value);
+        if (index >= 0) {
+            remove(index);
+        }
+    }
+
+    @Override
+    public Object remove(final int index) {
+        Objects.checkIndex(index, size);
+        final Object previous = get(index);
+        if (numbers != null) {
+            System.arraycopy(numbers, index + 1, numbers, index, size - index - 1);
+            size--;
+        } else {
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            elements[--size] = null;
+        }
+        modCount++;
+        return previous;
+    }
+
+    public NList reverse() {
+        final NList reversed = new NList(this);
+        for (int i = 0, j = reversed.size - 1; i < j; i++, j--) {
+            if (reversed.numbers != null) {
+                final double number = reversed.numbers[i];
+                reversed.numbers[i] = reversed.numbers[j];
+                reversed.numbers[j] = number;
+            } else {
+                final Object element = reversed.elements[i];
+                reversed.elements[i] = reversed.elements[j];
+                reversed.elements[j] = element;
+            }
+        }
+        return reversed;
+    }
+}
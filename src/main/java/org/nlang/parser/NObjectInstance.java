@@ -2,31 +2,80 @@ package org.nlang.parser;
 
 import org.nlang.err.Err;
 import org.nlang.lexer.Token;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 
 public class NObjectInstance {
 
-    private final Map<Object, Object> fields;
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private Shape shape = Shape.EMPTY;
+    private Object[] values = NO_VALUES;
 
 
     public NObjectInstance() {
-        this.fields = new HashMap<>();
     }
 
     public void defineField(Object key, Object value) {
-        fields.put(String.valueOf(key), value);
+        String name = String.valueOf(key);
+        int slot = shape.slot(name);
+        if (slot < 0) {
+            slot = shape.size();
+            shape = shape.with(name);
+            if (slot == values.length) {
+                values = Arrays.copyOf(values, Math.max(4, slot * 2));
+            }
+        }
+        values[slot] = Operations.store(values[slot], value);
     }
 
     public Object getField(Token key) {
-        if (fields.containsKey(key.value)) {
-            return fields.get(key.value);
+        return getField(key.value, key);
+    }
+
+    public Object getField(String key, Token token) {
+        int slot = shape.slot(key);
+        if (slot >= 0) {
+            return values[slot];
+        }
+        throw Err.err("Error: Key doesn't exist", token);
+    }
+
+    /**
+     * Reads a field through the slot an access site cached for this object's shape, or looks the field up
+     * and refreshes the cache. Returns null in the cache's place when the field doesn't exist.
+     */
+    Shape.Cache cache(Shape.Cache cache, String key) {
+        if (cache != null && cache.shape() == shape) {
+            return cache;
         }
-        throw Err.err("Error: Key doesn't exist", key);
+        int slot = shape.slot(key);
+        return slot < 0 ? null : new Shape.Cache(shape, slot);
+    }
+
+    Object valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Fields of the object in the order they were added.
+     */
+    public Map<String, Object> fields() {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < shape.size(); i++) {
+            fields.put(shape.name(i), values[i]);
+        }
+        return fields;
     }
 
     public String formattedView(int indent) {
+        final Map<Object, Object> fields = new HashMap<>();
+        for (int i = 0; i < shape.size(); i++) {
+            fields.put(shape.name(i), values[i]);
+        }
         final StringBuilder sb = new StringBuilder();
         sb.append("\t".repeat(indent));
         if (fields.size() > 1) {
@@ -0,0 +1,52 @@
+package org.nlang.parser;
+
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Range value made by {@code a..b} or {@code a..=b}. It behaves as the immutable list of the numbers it covers,
+ * but only keeps its bounds, so indexing, {@code len()} and walking it don't allocate a list. Mutating methods
+ * work on a copy like they do for any shared list.
+ */
+public final class NRange extends AbstractList<Object> implements RandomAccess, Cursor.Source {
+
+    private final int start;
+    private final int end;
+
+    /**
+     * A range from start up to, but not including, end.
+     */
+    public NRange(final int start, final int end) {
+        this.start = start;
+        this.end = Math.max(start, end);
+    }
+
+    @Override
+    public Object get(final int index) {
+        Objects.checkIndex(index, size());
+        return (double) (start + index);
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Object next() {
+                return (double) next++;
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package org.nlang.parser;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * String value built by {@code add} and {@code remove}. Characters are kept in a growable buffer so appending
+ * is amortized O(1), the flat {@link String} is only made when the value is printed or compared and is kept
+ * until the next change. Like {@link NList} it counts its owners and is only changed in place by its single
+ * owner, string literals stay plain {@link String}s.
+ */
+public final class NString implements CharSequence {
+
+    private static final String[] CHARACTERS = new String[256];
+
+    static {
+        for (char c = 0; c < CHARACTERS.length; c++) {
+            CHARACTERS[c] = String.valueOf(c);
+        }
+    }
+
+    private char[] chars;
+    private int length;
+    private int owners;
+    private String flat;
+
+    public NString(final CharSequence value) {
+        this.flat = value.toString();
+        this.chars = flat.toCharArray();
+        this.length = chars.length;
+    }
+
+    private NString(final char[] chars) {
+        this.chars = chars;
+        this.length = chars.length;
+    }
+
+    /**
+     * Records one more place holding this string.
+     */
+    public void share() {
+        if (owners < 2) {
+            owners++;
+        }
+    }
+
+    public boolean isShared() {
+        return owners > 1;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        Objects.checkIndex(index, length);
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, length);
+        return new String(chars, start, end - start);
+    }
+
+    public void append(final CharSequence value) {
+        final int added = value.length();
+        final int required = length + added;
+        if (required > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(required, Math.max(16, length + (length >> 1))));
+        }
+        if (value == this) {
+            System.arraycopy(chars, 0, chars, length, added);
+        } else {
+            for (int i = 0; i < added; i++) {
+                chars[length + i] = value.charAt(i);
+            }
+        }
+        length = required;
+        flat = null;
+    }
+
+    /**
+     * Removes the first occurrence of a single character value, strings behave as lists of characters here.
+     */
+    public void removeValue(final CharSequence value) {
+        if (value.length() != 1) {
+            return;
+        }
+        final char c = value.charAt(0);
+        for (int i = 0; i < length; i++) {
+            if (chars[i] == c) {
+                System.arraycopy(chars, i + 1, chars, i, length - i - 1);
+                length--;
+                flat = null;
+                return;
+            }
+        }
+    }
+
+    public NString reverse() {
+        final char[] reversed = new char[length];
+        for (int i = 0; i < length; i++) {
+            reversed[i] = chars[length - 1 - i];
+        }
+        return new NString(reversed);
+    }
+
+    /**
+     * One character string of a character, strings of Latin-1 characters are cached.
+     */
+    public static String character(final char c) {
+        return c < CHARACTERS.length ? CHARACTERS[c] : String.valueOf(c);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof CharSequence s && CharSequence.compare(this, s) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = new String(chars, 0, length);
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,19 @@
+package org.nlang.parser;
+
+/**
+ * Body of a hot function compiled to JVM bytecode by {@link JvmCompiler}. It runs in place of the tree walker
+ * for calls whose arguments it was compiled for.
+ */
+interface NativeCode {
+
+    /**
+     * Returned by {@link #invoke} when the arguments aren't of the types the code was compiled for, the call
+     * then runs in the tree walker.
+     */
+    Object UNSUPPORTED_ARGUMENTS = new Object();
+
+    /**
+     * Runs the function with the arguments bound to the first slots of the frame and returns its result.
+     */
+    Object invoke(Environment frame);
+}
@@ -0,0 +1,308 @@
+package org.nlang.parser;
+
+import org.nlang.err.Err;
+import org.nlang.lexer.Token;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Operations on NLang values which are shared by the tree walking interpreter and the bytecode VM,
+ * so both execution engines behave the same way.
+ */
+public final class Operations {
+
+    private Operations() {
+    }
+
+    public static boolean isMutatingMethod(final Token name) {
+        return name.value.equals("add") || name.value.equals("remove");
+    }
+
+    /**
+     * Whether a mutating method called on the value produces a new value for the receiving variable.
+     */
+    public static boolean isUpdatable(final Object receiver) {
+        return receiver instanceof Iterable<?> || receiver instanceof CharSequence;
+    }
+
+    /**
+     * Marks a value as written to a variable, parameter, list element or object field, see {@link NList}.
+     */
+    public static Object share(final Object value) {
+        if (value instanceof NList list) {
+            list.share();
+        } else if (value instanceof NString str) {
+            str.share();
+        }
+        return value;
+    }
+
+    /**
+     * Shares a value replacing the previous value of a storage location, writing back the same list doesn't
+     * add an owner.
+     */
+    public static Object store(final Object previous, final Object value) {
+        if (previous != value) {
+            share(value);
+        }
+        return value;
+    }
+
+    public static Object invokeMethod(final Object receiver, final Token name, final List<Object> arguments) {
+        return invokeMethod(receiver, name, arguments, false);
+    }
+
+    /**
+     * Invokes a built-in method like {@code add}, {@code reverse} or {@code first} on the receiver.
+     * Mutating methods return the new value which the caller assigns back. They may only change the receiver
+     * when it was read from the variable receiving the result ({@code inPlace}) and no one else owns it.
+     */
+    public static Object invokeMethod(final Object receiver, final Token name, final List<Object> arguments,
+                                      final boolean inPlace) {
+        if (receiver instanceof Iterable<?>) {
+            List<?> list = (List<?>) receiver;
+            switch (name.value) {
+                case "add" -> {
+                    NList target = mutable(list, inPlace && !containsSame(arguments, list));
+                    arguments.forEach(target::add);
+                    return target;
+                }
+                case "remove" -> {
+                    NList target = mutable(list, inPlace);
+                    arguments.forEach(target::removeValue);
+                    return target;
+                }
+                case "reverse" -> {
+                    return list instanceof NList n ? n.reverse() : new NList(list).reverse();
+                }
+                case "last" -> {
+                    return list.getLast();
+                }
+                case "first" -> {
+                    return list.getFirst();
+                }
+                default -> throw Err.err(String.format("%s is not a valid method on iterable", name.value), name);
+            }
+        }
+        if (receiver instanceof CharSequence str) {
+            switch (name.value) {
+                case "add" -> {
+                    NString target = mutable(str, inPlace);
+                    arguments.forEach(a -> target.append((CharSequence) a));
+                    return target;
+                }
+                case "remove" -> {
+                    NString target = mutable(str, inPlace);
+                    arguments.forEach(a -> target.removeValue((CharSequence) a));
+                    return target;
+                }
+                case "reverse" -> {
+                    return str instanceof NString n ? n.reverse() : new NString(str).reverse();
+                }
+                case "last" -> {
+                    return NString.character(str.charAt(str.length() - 1));
+                }
+                case "first" -> {
+                    return NString.character(str.charAt(0));
+                }
+                default -> throw Err.err(String.format("%s is not a valid method on iterable", name.value), name);
+            }
+        }
+        if (receiver instanceof NObjectInstance n) {
+            return n.getField(name);
+        }
+        throw Err.err("Wrong usage", name);
+    }
+
+    private static NList mutable(final List<?> list, final boolean inPlace) {
+        if (inPlace && list instanceof NList n && !n.isShared()) {
+            return n;
+        }
+        return new NList(list);
+    }
+
+    /**
+     * Whether the receiver itself is one of the arguments, adding a list to itself in place would make it
+     * contain itself.
+     */
+    private static boolean containsSame(final List<Object> arguments, final Object receiver) {
+        for (Object argument : arguments) {
+            if (argument == receiver) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static NString mutable(final CharSequence str, final boolean inPlace) {
+        if (inPlace && str instanceof NString n && !n.isShared()) {
+            return n;
+        }
+        return new NString(str);
+    }
+
+    /**
+     * Result of a mutating method call as seen by the calling expression, which must not alias
+     * the value assigned back to the variable.
+     */
+    public static Object copyOf(final Object value) {
+        if (value instanceof List<?> list) {
+            return new NList(list);
+        }
+        if (value instanceof NString str) {
+            return str.toString();
+        }
+        return value;
+    }
+
+    /**
+     * Range value of {@code start..end}, or {@code start..=end} when inclusive.
+     */
+    public static NRange range(final Object start, final Object end, final boolean inclusive, final Token token) {
+        if (!(start instanceof Double s) || !(end instanceof Double e)) {
+            throw Err.err("range bounds should be numbers", token);
+        }
+        return new NRange(s.intValue(), inclusive ? e.intValue() + 1 : e.intValue());
+    }
+
+    public static Object field(final Object target, final Token name) {
+        return ((NObjectInstance) target).getField(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Object index(final Object target, final Object index, final Token token) {
+        if (target instanceof Iterable<?> v) {
+            List<Object> variable = (List<Object>) v;
+            return variable.get(((Double) index).intValue());
+        } else if (target instanceof NObjectInstance nInstance) {
+            return nInstance.getField(String.valueOf(index), token);
+        }
+        throw Err.err("[\"value\"] operation only supported for iterables and objects", token);
+    }
+
+    /**
+     * Stores an element or object field and returns the value now holding it. That's the target itself,
+     * except for a range, which can't change: it's copied into a list that the caller writes back to the
+     * variable the range came from, or refused when the range isn't held by a variable.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object setIndex(final Object target, final Object index, final Object value, final Token token,
+                                  final boolean replaceable) {
+        if (index instanceof CharSequence key) {
+            if (target instanceof NObjectInstance node) {
+                node.defineField(key.toString(), value);
+            }
+        } else if (index instanceof Double i) {
+            if (target instanceof List<?> list && !(list instanceof NList)) {
+                if (!replaceable) {
+                    throw Err.err("can't set an element of a range, copy it into a list first", token);
+                }
+                final NList copy = new NList(list);
+                setIndex(copy, index, value, token, false);
+                return copy;
+            }
+            final List<Object> array = (List<Object>) target;
+            int requiredSize = i.intValue();
+            if (requiredSize > array.size() - 1) {
+                IntStream.range(array.size(), requiredSize + 1).forEach(_ -> array.add(null));
+            }
+            array.set(i.intValue(), value);
+        }
+        return target;
+    }
+
+    /**
+     * Starts walking a value in a for-in loop; strings are walked character by character. The running loop
+     * owns the list or string, so it isn't changed in place while being walked.
+     */
+    public static Cursor iterate(final Object value, final Token token) {
+        return switch (share(value)) {
+            case Cursor.Source source -> source.cursor();
+            case CharSequence str -> Cursor.of(str);
+            case List<?> list -> Cursor.of(list);
+            case null, default -> throw Err.err("variable " + token.value + " is not iterable.", token);
+        };
+    }
+
+    /**
+     * Equality of values, strings are equal by content whether they are literals or built by {@code add}.
+     * Lists are equal when their elements are, compared the same way.
+     */
+    public static boolean equal(final Object left, final Object right) {
+        if (left instanceof CharSequence a && right instanceof CharSequence b) {
+            return CharSequence.compare(a, b) == 0;
+        }
+        if (left instanceof List<?> a && right instanceof List<?> b) {
+            return a == b || equalElements(a, b);
+        }
+        return left.equals(right);
+    }
+
+    private static boolean equalElements(final List<?> left, final List<?> right) {
+        final int size = left.size();
+        if (size != right.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            final Object a = left.get(i);
+            final Object b = right.get(i);
+            if (a == null ? b != null : b == null || !equal(a, b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Object binary(final Token operatorToken, final Object leftVal, final Object rightVal) {
+        return switch (operatorToken.type) {
+            case EQUAL -> equal(leftVal, rightVal);
+            case NOT_EQUAL -> !equal(leftVal, rightVal);
+            case AND -> (boolean) leftVal && (boolean) rightVal;
+            case OR -> (boolean) leftVal || (boolean) rightVal;
+            default -> arithmetic(operatorToken, (double) leftVal, (double) rightVal);
+        };
+    }
+
+    private static Object arithmetic(final Token operatorToken, final double leftVal, final double rightVal) {
+        return switch (operatorToken.type) {
+            case PLUS -> leftVal + rightVal;
+            case MINUS -> leftVal - rightVal;
+            case MULTIPLY -> leftVal * rightVal;
+            case DIVIDE -> leftVal / rightVal;
+            case GREATER -> leftVal > rightVal;
+            case SMALLER -> leftVal < rightVal;
+            default -> throw Err.err("Unknown operator: " + operatorToken.value, operatorToken);
+        };
+    }
+
+    public static void print(final Object result) {
+        switch (result) {
+            case NObjectInstance sp -> System.out.println(sp.formattedView(0));
+            case Double r -> printDouble(r);
+            case List<?> array -> printList(array);
+            case null, default -> System.out.print(result);
+        }
+    }
+
+    private static void printDouble(final Double r) {
+        if (r % 1 == 0) {
+            System.out.print(r.intValue());
+            return;
+        }
+        System.out.print(r);
+
+    }
+
+    private static void printList(final List<?> array) {
+        System.out.print("[");
+        for (int i = 0; i < array.size(); i++) {
+            print(array.get(i));
+            if (i < array.size() - 1) {
+                System.out.print(", ");
+            }
+        }
+        System.out.print("]");
+    }
+
+}
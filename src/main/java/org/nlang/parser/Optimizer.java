@@ -0,0 +1,166 @@
+package org.nlang.parser;
+
+import org.nlang.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the parsed program before it runs. The optimizer is a pipeline of passes, each pass visits every
+ * node after its children were rewritten and returns the node to use in its place.
+ */
+public final class Optimizer {
+
+    /**
+     * A rewrite of single nodes. Returning null removes a statement, expressions must always be replaced
+     * by another expression.
+     */
+    @FunctionalInterface
+    public interface Pass {
+        ASTNode rewrite(ASTNode node);
+    }
+
+    /**
+     * Folds operations on literals into a literal.
+     */
+    public static final Pass CONSTANT_FOLDING = Optimizer::foldConstants;
+
+    /**
+     * Removes if statements which never run and blocks without statements, and replaces if statements
+     * which always run with their block.
+     */
+    public static final Pass DEAD_CODE_ELIMINATION = Optimizer::eliminateDeadCode;
+
+    /**
+     * Removes assert statements, for production runs.
+     */
+    public static final Pass ASSERT_STRIPPING = node -> node instanceof AssertNode ? null : node;
+
+    private final List<Pass> passes;
+
+    public Optimizer(final List<Pass> passes) {
+        this.passes = List.copyOf(passes);
+    }
+
+    public static Optimizer standard(final boolean stripAsserts) {
+        final List<Pass> passes = new ArrayList<>(List.of(CONSTANT_FOLDING, DEAD_CODE_ELIMINATION));
+        if (stripAsserts) {
+            passes.add(ASSERT_STRIPPING);
+        }
+        return new Optimizer(passes);
+    }
+
+    public List<ASTNode> optimize(final List<ASTNode> statements) {
+        List<ASTNode> result = statements;
+        for (Pass pass : passes) {
+            result = new Rewriter(pass).statements(result);
+        }
+        return result;
+    }
+
+    /**
+     * Applies one pass to a tree, nodes use it to rewrite their children.
+     */
+    static final class Rewriter {
+
+        private final Pass pass;
+
+        private Rewriter(final Pass pass) {
+            this.pass = pass;
+        }
+
+        ASTNode expression(final ASTNode node) {
+            if (node == null) {
+                return null;
+            }
+            final ASTNode rewritten = pass.rewrite(node.transform(this));
+            if (rewritten == null) {
+                throw new IllegalStateException("Expression " + node.getClass().getSimpleName() + " can't be removed");
+            }
+            return rewritten;
+        }
+
+        List<ASTNode> expressions(final List<ASTNode> nodes) {
+            final List<ASTNode> result = new ArrayList<>(nodes.size());
+            for (ASTNode node : nodes) {
+                result.add(expression(node));
+            }
+            return result;
+        }
+
+        List<ASTNode> statements(final List<ASTNode> nodes) {
+            final List<ASTNode> result = new ArrayList<>(nodes.size());
+            for (ASTNode node : nodes) {
+                final ASTNode rewritten = pass.rewrite(node.transform(this));
+                if (rewritten != null) {
+                    result.add(rewritten);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Body of an if statement or loop, it stays a block even when empty.
+         */
+        BlockNode body(final BlockNode block) {
+            return (BlockNode) block.transform(this);
+        }
+    }
+
+    private static ASTNode foldConstants(final ASTNode node) {
+        if (node instanceof BinaryNode binary) {
+            final Object left = literal(binary.left);
+            final Object right = literal(binary.right);
+            if (left != null && right != null && foldable(binary.operator, left, right)) {
+                return literalNode(Operations.binary(binary.operatorToken, left, right), binary.operatorToken);
+            }
+        } else if (node instanceof UnaryNode unary) {
+            final Object value = literal(unary.expr);
+            if (value instanceof Double d && unary.operator.type == Token.TokenType.MINUS) {
+                return new NumberNode(-d);
+            }
+            if (value instanceof Boolean b && unary.operator.type == Token.TokenType.NOT) {
+                return literalNode(!b, unary.operator);
+            }
+        }
+        return node;
+    }
+
+    private static boolean foldable(final Token.TokenType operator, final Object left, final Object right) {
+        return switch (operator) {
+            case PLUS, MINUS, MULTIPLY, DIVIDE, GREATER, SMALLER -> left instanceof Double && right instanceof Double;
+            case AND, OR -> left instanceof Boolean && right instanceof Boolean;
+            case EQUAL, NOT_EQUAL -> left.getClass() == right.getClass();
+            default -> false;
+        };
+    }
+
+    private static Object literal(final ASTNode node) {
+        return switch (node) {
+            case NumberNode n -> n.value;
+            case StringNode s -> s.value;
+            case BooleanNode b when b.token.type == Token.TokenType.TRUE -> true;
+            case BooleanNode b when b.token.type == Token.TokenType.FALSE -> false;
+            default -> null;
+        };
+    }
+
+    private static ASTNode literalNode(final Object value, final Token position) {
+        if (value instanceof Boolean b) {
+            final Token.TokenType type = b ? Token.TokenType.TRUE : Token.TokenType.FALSE;
+            return new BooleanNode(new Token(type, String.valueOf(b), position.line, position.start, position.end));
+        }
+        return new NumberNode((double) value);
+    }
+
+    private static ASTNode eliminateDeadCode(final ASTNode node) {
+        if (node instanceof IfNode ifNode && literal(ifNode.condition) instanceof Boolean condition) {
+            final BlockNode block = ifNode.blockExpr;
+            return condition && !block.expressions.isEmpty() ? block : null;
+        }
+        if (node instanceof BlockNode block && block.expressions.isEmpty()) {
+            return null;
+        }
+        return node;
+    }
+}
@@ -1,22 +1,75 @@
 package org.nlang.parser;
 
 import org.nlang.err.Err;
+import org.nlang.lexer.Lexer;
 import org.nlang.lexer.Token;
 import org.nlang.lexer.Token.TokenType;
+import org.nlang.lexer.TokenBuffer;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Parses tokens from a {@link TokenBuffer}, reading their types and text from its arrays. A {@link Token} is only
+ * created for a token a node keeps or an error points at. Parsing from a lexer keeps a window of its tokens,
+ * which the lexer refills when the parser gets to the end of it.
+ */
 public class Parser {
-    private final List<Token> tokens;
-    private int pos = 0;
-
-    public Parser(List<Token> tokens) {
+    /**
+     * Binding power of binary operators, indexed by token type, 0 for tokens which aren't one. Operators of a
+     * level take operands of the levels above it, ranges can't be chained.
+     */
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    private static final int LOGICAL = 1;
+    private static final int EQUALITY = 2;
+    private static final int COMPARISON = 3;
+    private static final int RANGE = 4;
+    private static final int TERM = 5;
+    private static final int FACTOR = 6;
+
+    static {
+        PRECEDENCE[TokenType.AND.ordinal()] = LOGICAL;
+        PRECEDENCE[TokenType.OR.ordinal()] = LOGICAL;
+        PRECEDENCE[TokenType.EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.NOT_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.GREATER.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.SMALLER.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.DOT_DOT.ordinal()] = RANGE;
+        PRECEDENCE[TokenType.PLUS.ordinal()] = TERM;
+        PRECEDENCE[TokenType.MINUS.ordinal()] = TERM;
+        PRECEDENCE[TokenType.MULTIPLY.ordinal()] = FACTOR;
+        PRECEDENCE[TokenType.DIVIDE.ordinal()] = FACTOR;
+    }
+
+    /**
+     * Number of tokens the lexer scans into the window at a time.
+     */
+    private static final int WINDOW = 512;
+
+    /**
+     * Lexer refilling the window, null when the buffer holds all tokens.
+     */
+    private final Lexer lexer;
+    private final TokenBuffer tokens;
+    /** Index of the current token in the buffer. */
+    private int position;
+    private int parallelLoops = 0;
+
+    public Parser(TokenBuffer tokens) {
+        this.lexer = null;
         this.tokens = tokens;
     }
 
+    /**
+     * Parser having the lexer scan tokens while it parses, the source is never held as a whole.
+     */
+    public Parser(Lexer lexer) {
+        this.lexer = lexer;
+        this.tokens = lexer.tokenize(WINDOW, WINDOW);
+    }
+
     public List<ASTNode> parse() {
         return parseStatements();
     }
@@ -30,10 +83,11 @@ public class Parser {
     }
 
     private ASTNode parseStatement() {
-        if (check(TokenType.FUNC)) return parseFuncStatement();
+        if (check(TokenType.FUNC) || check(TokenType.MEMO)) return parseFuncStatement();
         if (match(TokenType.MAKE)) return parseVarDeclaration();
         if (match(TokenType.IF)) return parseIfStatement();
         if (match(TokenType.FOR)) return parseForStatement();
+        if (match(TokenType.PFOR)) return parseParallelForStatement();
         if (match(TokenType.PRINT)) return parsePrint();
         if (match(TokenType.RETURN)) return parseReturnStatement();
         if (check(TokenType.LBRACE)) return parseBlock();
@@ -54,15 +108,13 @@ public class Parser {
     }
 
 
-    private ASTNode parseForLoopWithNumberRange(ASTNode startNode) {
-        boolean equal = match(TokenType.ASSIGN);
-        ASTNode end = parseExpression();
+    private ASTNode parseForLoopWithNumberRange(RangeNode range) {
         Token indexVariable = new Token(TokenType.IDENTIFIER, "i", 0, 0, 0);
         if (match(TokenType.COLUMN)) {
-            indexVariable = consume(TokenType.IDENTIFIER, "index variable should be identifier ");
+            indexVariable = consumeToken(TokenType.IDENTIFIER, "index variable should be identifier ");
         }
-        ASTNode block = parseBlock();
-        return new ForLoopNode(startNode, end, indexVariable, block, equal);
+        BlockNode block = parseBlock();
+        return new ForLoopNode(range.start, range.end, indexVariable, block, range.inclusive);
     }
 
     private ASTNode parseForInLoop(Token loopVariable) {
@@ -70,9 +122,9 @@ public class Parser {
         ASTNode endNode = parseExpression();
         Token indexVariable = new Token(TokenType.IDENTIFIER, "i", 0, 0, 0);
         if (match(TokenType.COLUMN)) {
-            indexVariable = consume(TokenType.IDENTIFIER, "index variable should be identifier ");
+            indexVariable = consumeToken(TokenType.IDENTIFIER, "index variable should be identifier ");
         }
-        ASTNode body = parseBlock();
+        BlockNode body = parseBlock();
         return new ForInLoopNode(loopVariable, endNode, body, indexVariable, iterableToken);
 
     }
@@ -80,8 +132,8 @@ public class Parser {
     private ASTNode parseForStatement() {
         Token loopVarToken = peek();
         ASTNode startNode = parseExpression();
-        if (match(TokenType.DOT_DOT)) {
-            return parseForLoopWithNumberRange(startNode);
+        if (startNode instanceof RangeNode range) {
+            return parseForLoopWithNumberRange(range);
         }
         if (match(TokenType.IN)) {
             return parseForInLoop(loopVarToken);
@@ -89,6 +141,51 @@ public class Parser {
         throw Err.err("Unexpected token: ", peek());
     }
 
+    private ASTNode parseParallelForStatement() {
+        Token rangeToken = peek();
+        if (!(parseExpression() instanceof RangeNode range)) {
+            throw Err.err("pfor expects a range: ", rangeToken);
+        }
+        Token indexVariable = new Token(TokenType.IDENTIFIER, "i", 0, 0, 0);
+        if (match(TokenType.COLUMN)) {
+            indexVariable = consumeToken(TokenType.IDENTIFIER, "index variable should be identifier ");
+        }
+        List<ParallelForNode.Reduction> reductions = parseReductions();
+        parallelLoops++;
+        BlockNode body = parseBlock();
+        parallelLoops--;
+        return new ParallelForNode(range.start, range.end, indexVariable, body, range.inclusive, reductions);
+    }
+
+    /**
+     * {@code reduce(total: +, found: or, items: add)} after a pfor range names the variables its iterations
+     * combine their results into.
+     */
+    private List<ParallelForNode.Reduction> parseReductions() {
+        List<ParallelForNode.Reduction> reductions = new ArrayList<>();
+        if (!check(TokenType.IDENTIFIER) || !tokens.value(position).equals("reduce")) {
+            return reductions;
+        }
+        skip();
+        consume(TokenType.LPAREN, "Expecting '(' after reduce");
+        do {
+            Token variable = consumeToken(TokenType.IDENTIFIER, "Expecting variable name in reduce");
+            consume(TokenType.COLUMN, "Expecting ':' after reduced variable");
+            Token operator = advance();
+            boolean supported = switch (operator.type) {
+                case PLUS, MULTIPLY, AND, OR -> true;
+                case IDENTIFIER -> operator.value.equals("add");
+                default -> false;
+            };
+            if (!supported) {
+                throw Err.err("Reduction operator should be one of +, *, and, or, add: ", operator);
+            }
+            reductions.add(new ParallelForNode.Reduction(variable, operator));
+        } while (match(TokenType.COMMA));
+        consume(TokenType.RPAREN, "Expecting ')' after reductions");
+        return reductions;
+    }
+
     private BlockNode parseBlock() {
         consume(TokenType.LBRACE, "Expecting '{' ");
         List<ASTNode> statements = new ArrayList<>();
@@ -100,6 +197,9 @@ public class Parser {
     }
 
     private ASTNode parseReturnStatement() {
+        if (parallelLoops > 0) {
+            throw Err.err("return is not allowed in pfor: ", previous());
+        }
         ASTNode value = null;
         if (!check(TokenType.SEMICOLON)) {
             value = parseExpression();
@@ -117,20 +217,43 @@ public class Parser {
     }
 
     private ASTNode parseFuncStatement() {
+        Memo memo = parseMemo();
         consume(TokenType.FUNC, "function should start with func keyword");
-        Token name = consume(TokenType.IDENTIFIER, "function  should have a name");
+        Token name = consumeToken(TokenType.IDENTIFIER, "function  should have a name");
         consume(TokenType.LPAREN, "Expecting '(' after function name");
         List<Token> parameters = parseParameters();
+        int enclosingParallelLoops = parallelLoops;
+        parallelLoops = 0;
         BlockNode astNode = parseBlock();
-        return new FunctionDefinitionNode(name, parameters, astNode.getExpressions());
+        parallelLoops = enclosingParallelLoops;
+        return new FunctionDefinitionNode(name, parameters, astNode.getExpressions(), memo);
+    }
+
+    /**
+     * {@code memo} or {@code memo(capacity)} in front of a function caches its results, see {@link Memo}.
+     */
+    private Memo parseMemo() {
+        if (!match(TokenType.MEMO)) {
+            return null;
+        }
+        int capacity = Memo.DEFAULT;
+        if (match(TokenType.LPAREN)) {
+            Token size = consumeToken(TokenType.NUMBER, "Expecting cache size after 'memo('");
+            capacity = (int) Double.parseDouble(size.value);
+            if (capacity < 1) {
+                throw Err.err("Cache size should be at least 1", size);
+            }
+            consume(TokenType.RPAREN, "Expecting ')' after cache size");
+        }
+        return new Memo(capacity);
     }
 
     private List<Token> parseParameters() {
         List<Token> parameters = new ArrayList<>();
         if (!check(TokenType.RPAREN)) {
-            parameters.add(consume(TokenType.IDENTIFIER, "error while reading func parameter"));
+            parameters.add(consumeToken(TokenType.IDENTIFIER, "error while reading func parameter"));
             while (match(TokenType.COMMA)) {
-                parameters.add(consume(TokenType.IDENTIFIER, "error while reading func parameter"));
+                parameters.add(consumeToken(TokenType.IDENTIFIER, "error while reading func parameter"));
             }
             consume(TokenType.RPAREN, "Expecting ')' after function parameters");
         } else {
@@ -140,7 +263,7 @@ public class Parser {
     }
 
     private ASTNode parseVarDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expected variable name.");
+        Token name = consumeToken(TokenType.IDENTIFIER, "Expected variable name.");
         consume(TokenType.ASSIGN, "Expected '=' after variable name.");
         ASTNode value;
         value = parseExpression();
@@ -185,62 +308,38 @@ public class Parser {
     }
 
     private ASTNode parseExpression() {
-        return parseLogicalAndOr();
-    }
-
-    private ASTNode parseLogicalAndOr() {
-        ASTNode expr = parseEquality();
-        while (match(TokenType.AND, TokenType.OR)) {
-            Token operator = previous();
-            ASTNode right = parseEquality();
-            expr = new BinaryNode(expr, right, operator);
-        }
-        return expr;
-    }
-
-    private ASTNode parseEquality() {
-        ASTNode expr = parseComparison();
-        while (match(TokenType.EQUAL, TokenType.NOT_EQUAL)) {
-            Token operator = previous();
-            ASTNode right = parseComparison();
-            expr = new BinaryNode(expr, right, operator);
-        }
-        return expr;
-    }
-
-    private ASTNode parseComparison() {
-        ASTNode expr = parseAddition();
-        while (match(TokenType.GREATER, TokenType.SMALLER)) {
-            Token operator = previous();
-            ASTNode right = parseAddition();
-            expr = new BinaryNode(expr, right, operator);
-        }
-        return expr;
-    }
-
-    private ASTNode parseAddition() {
-        ASTNode expr = parseFactor();
-        while (match(TokenType.PLUS, TokenType.MINUS)) {
-            Token operator = previous();
-            ASTNode right = parseFactor();
-            expr = new BinaryNode(expr, right, operator);
-        }
-        return expr;
+        return parseBinary(LOGICAL);
     }
 
-    private ASTNode parseFactor() {
+    /**
+     * Parses operators binding at least as tight as the given level. After an operator only operators of its
+     * own level or lower ones may follow, the tighter ones were already taken by its right operand.
+     */
+    private ASTNode parseBinary(int lowest) {
         ASTNode expr = parseUnary();
-        while (match(TokenType.MULTIPLY, TokenType.DIVIDE)) {
-            Token operator = previous();
-            ASTNode right = parseUnary();
-            expr = new BinaryNode(expr, right, operator);
+        int highest = FACTOR;
+        while (true) {
+            int precedence = PRECEDENCE[peekType().ordinal()];
+            if (precedence < lowest || precedence > highest) {
+                return expr;
+            }
+            Token operator = advance();
+            if (precedence == RANGE) {
+                boolean inclusive = match(TokenType.ASSIGN);
+                ASTNode end = parseBinary(TERM);
+                expr = new RangeNode(expr, end, inclusive, operator);
+                highest = RANGE - 1;
+            } else {
+                ASTNode right = parseBinary(precedence + 1);
+                expr = new BinaryNode(expr, right, operator);
+                highest = precedence;
+            }
         }
-        return expr;
     }
 
     private ASTNode parseUnary() {
-        if (match(TokenType.MINUS, TokenType.NOT)) {
-            Token operator = previous();
+        if (check(TokenType.MINUS) || check(TokenType.NOT)) {
+            Token operator = advance();
             ASTNode expr = parseUnary();
             return new UnaryNode(operator, expr);
         }
@@ -261,12 +360,13 @@ public class Parser {
 
     private ASTNode parseCall(ASTNode parent) {
         ASTNode expr = parsePrimary();
-        Token name = previous();
-        if (match(TokenType.LPAREN)) {
+        if (check(TokenType.LPAREN)) {
+            Token name = previous();
+            skip();
             return parseFunctionCall(name, parent);
         }
         if (parent != null) {
-            return new ChildAccessNode(parent, expr, name);
+            return new ChildAccessNode(parent, expr, previous());
         }
         return expr;
     }
@@ -291,7 +391,7 @@ public class Parser {
     }
 
     private ASTNode parseObject() {
-        Map<ASTNode, ASTNode> map = new HashMap<>();
+        Map<ASTNode, ASTNode> map = new LinkedHashMap<>();
         if (check(TokenType.RBRACE)) {
             consume(TokenType.RBRACE, "Expecting '}' for object definition");
             return new ContainerNode(map);
@@ -320,67 +420,101 @@ public class Parser {
     }
 
     private ASTNode parsePrimary() {
-        if (match(TokenType.NUMBER)) {
-            return new NumberNode(Double.parseDouble(previous().value));
-        }
-        if (match(TokenType.STRING)) {
-            return new StringNode(previous().value);
-        }
-        if (match(TokenType.IDENTIFIER)) {
-            return new VariableNode(previous());
-        }
-        if (match(TokenType.LPAREN)) {
-            ASTNode expr = parseExpression();
-            consume(TokenType.RPAREN, "Expected ')' after expression.");
-            return expr;
-        }
-        if (match(TokenType.LEFT_BRACKET)) {
-            return parseArrayExpression();
-        }
-        if (match(TokenType.LBRACE)) {
-            return parseObject();
-        }
-        if (match(TokenType.TRUE, TokenType.FALSE)) {
-            return new BooleanNode(previous());
+        switch (peekType()) {
+            case NUMBER -> {
+                double value = Double.parseDouble(tokens.value(position));
+                skip();
+                return new NumberNode(value);
+            }
+            case STRING -> {
+                String value = tokens.value(position);
+                skip();
+                return new StringNode(value);
+            }
+            case IDENTIFIER -> {
+                return new VariableNode(advance());
+            }
+            case LPAREN -> {
+                skip();
+                ASTNode expr = parseExpression();
+                consume(TokenType.RPAREN, "Expected ')' after expression.");
+                return expr;
+            }
+            case LEFT_BRACKET -> {
+                skip();
+                return parseArrayExpression();
+            }
+            case LBRACE -> {
+                skip();
+                return parseObject();
+            }
+            case TRUE, FALSE -> {
+                return new BooleanNode(advance());
+            }
+            default -> throw Err.err("Unexpected token: ", peek());
         }
-        throw Err.err("Unexpected token: ", peek());
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            skip();
+            return true;
         }
         return false;
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return peekType() == type;
+    }
+
+    /**
+     * Moves to the next token, having the lexer scan more when the window is used up. The current token
+     * stays in the window as the previous one.
+     */
+    private void skip() {
+        if (isAtEnd()) {
+            return;
+        }
+        position++;
+        if (position == tokens.size()) {
+            tokens.removeBefore(position - 1);
+            position = 1;
+            lexer.tokenize(tokens, WINDOW);
+        }
     }
 
     private Token advance() {
-        if (!isAtEnd()) pos++;
+        skip();
         return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return peekType() == TokenType.EOF;
+    }
+
+    private TokenType peekType() {
+        return tokens.type(position);
     }
 
     private Token peek() {
-        return tokens.get(pos);
+        return tokens.get(position);
     }
 
     private Token previous() {
-        return tokens.get(pos - 1);
+        return tokens.get(position > 0 ? position - 1 : position);
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
-        throw Err.err(message, previous());
+    private void consume(TokenType type, String message) {
+        if (!check(type)) {
+            throw Err.err(message, previous());
+        }
+        skip();
+    }
+
+    private Token consumeToken(TokenType type, String message) {
+        consume(type, message);
+        return previous();
     }
 
-}
\ No newline at end of file
+}
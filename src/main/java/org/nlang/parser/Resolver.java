@@ -0,0 +1,208 @@
+package org.nlang.parser;
+
+import org.nlang.err.Err;
+import org.nlang.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds every variable to the scope declaring it before the program runs.
+ * Scopes mirror the environments created at runtime by blocks, loops and function calls, so a local is
+ * addressed by how many environments up its scope is and its slot there. Names which are not declared
+ * in any enclosing scope are globals and are still looked up by name.
+ * Functions defined in blocks are bound the same way, so calls to them need no lookup at runtime.
+ */
+public final class Resolver {
+
+    record Address(int depth, int slot) {
+
+        static final Address GLOBAL = new Address(-1, -1);
+
+        boolean isGlobal() {
+            return slot < 0;
+        }
+    }
+
+    record FunctionAddress(int depth, FunctionDefinitionNode function) {
+    }
+
+    private static final class Scope {
+        private final Map<String, Integer> variables = new HashMap<>();
+        private final Map<String, FunctionDefinitionNode> functions = new HashMap<>();
+    }
+
+    private final Environment globals;
+    private final Set<String> declaredGlobals = new HashSet<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private final List<Integer> functionScopes = new ArrayList<>();
+    private final List<FunctionDefinitionNode> functions = new ArrayList<>();
+    private final List<Integer> parallelScopes = new ArrayList<>();
+
+    public Resolver(final Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Resolver of a program the host runs on environments it prepares itself, globals the program doesn't
+     * declare are looked up when they're used, like in function bodies.
+     */
+    public Resolver() {
+        this(null);
+    }
+
+    public void resolve(final List<ASTNode> statements) {
+        resolveStatements(statements);
+    }
+
+    void resolve(final ASTNode node) {
+        if (node != null) {
+            node.resolve(this);
+        }
+    }
+
+    void resolveAll(final List<ASTNode> nodes) {
+        for (ASTNode node : nodes) {
+            resolve(node);
+        }
+    }
+
+    /**
+     * Resolves statements, calls made as statements are marked as not needing their result.
+     */
+    void resolveStatements(final List<ASTNode> statements) {
+        for (ASTNode statement : statements) {
+            if (statement instanceof CallNode call) {
+                call.discardResult();
+            }
+            resolve(statement);
+        }
+    }
+
+    void beginScope() {
+        scopes.add(new Scope());
+    }
+
+    /**
+     * Closes the innermost scope and returns how many slots its environment needs.
+     */
+    int endScope() {
+        return scopes.removeLast().variables.size();
+    }
+
+    /**
+     * Declares a variable in the innermost scope and returns its slot, declaring a name twice in the
+     * same scope reuses the slot. Top level declarations are globals and get no slot.
+     */
+    int declare(final Token name) {
+        if (scopes.isEmpty()) {
+            declaredGlobals.add(name.value);
+            return Address.GLOBAL.slot();
+        }
+        final Map<String, Integer> scope = scopes.getLast().variables;
+        return scope.computeIfAbsent(name.value, _ -> scope.size());
+    }
+
+    /**
+     * Opens the scope of a {@code pfor} loop, its iterations run concurrently so they can't assign variables
+     * declared outside of it.
+     */
+    void beginParallelScope() {
+        beginScope();
+        parallelScopes.add(scopes.size() - 1);
+    }
+
+    int endParallelScope() {
+        parallelScopes.removeLast();
+        return endScope();
+    }
+
+    /**
+     * Hoists a function defined in a block, it can be called from anywhere inside the block.
+     */
+    void declareFunction(final FunctionDefinitionNode function) {
+        scopes.getLast().functions.put(function.name.value, function);
+    }
+
+    /**
+     * Finds the scope declaring the name. Top level code runs right away, so a global it uses must already
+     * be defined; function bodies may use globals which are defined before the function gets called.
+     */
+    Address lookup(final Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            final Integer slot = scopes.get(i).variables.get(name.value);
+            if (slot != null) {
+                return new Address(scopes.size() - 1 - i, slot);
+            }
+        }
+        if (globals != null && functionScopes.isEmpty() && !declaredGlobals.contains(name.value)
+                && !globals.isDefined(name.value)) {
+            throw Err.err("Undefined variable: " + name.value, name);
+        }
+        return Address.GLOBAL;
+    }
+
+    /**
+     * Finds the scope declaring a variable which gets assigned or changed in place. Inside a {@code pfor} loop
+     * only variables declared in the loop can be.
+     */
+    Address lookupAssigned(final Token name) {
+        final Address address = lookup(name);
+        if (!parallelScopes.isEmpty()
+                && (address.isGlobal() || scopes.size() - 1 - address.depth() < parallelScopes.getLast())) {
+            throw Err.err("Variable " + name.value + " is declared outside of pfor, it can only be changed "
+                    + "through reduce: ", name);
+        }
+        return address;
+    }
+
+    /**
+     * Finds the block defining the called function, returns null for global functions which are looked up
+     * by name when called.
+     */
+    FunctionAddress lookupFunction(final Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            final FunctionDefinitionNode function = scopes.get(i).functions.get(name.value);
+            if (function != null) {
+                return new FunctionAddress(scopes.size() - 1 - i, function);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a function body in a new scope holding its parameters, returns the size of its environment.
+     */
+    int function(final FunctionDefinitionNode function, final List<Token> parameters, final List<ASTNode> body) {
+        beginScope();
+        functionScopes.add(scopes.size() - 1);
+        functions.add(function);
+        parameters.forEach(this::declare);
+        resolveStatements(body);
+        functions.removeLast();
+        functionScopes.removeLast();
+        return endScope();
+    }
+
+    /**
+     * The function whose body is being resolved, null at the top level.
+     */
+    FunctionDefinitionNode enclosingFunction() {
+        return functions.isEmpty() ? null : functions.getLast();
+    }
+
+    /**
+     * How many environments up the one of the enclosing function call is, which receives returned values.
+     * Outside of functions it's the global environment.
+     */
+    int functionDepth() {
+        if (functionScopes.isEmpty()) {
+            return scopes.size();
+        }
+        return scopes.size() - 1 - functionScopes.getLast();
+    }
+}
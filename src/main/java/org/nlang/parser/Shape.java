@@ -0,0 +1,63 @@
+package org.nlang.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout of an object: which slot of its value array holds which field. Objects start with the empty shape
+ * and move to a child shape for every field they add, shapes are shared through these transitions, so objects
+ * which got the same fields in the same order have the very same shape. Field access sites remember the last
+ * shape they saw, when it's the same again the field is read without a lookup.
+ */
+final class Shape {
+
+    static final Shape EMPTY = new Shape(new String[0], Map.of());
+
+    /**
+     * Slot of a field in objects of a shape, remembered by a field access site.
+     */
+    record Cache(Shape shape, int slot) {
+    }
+
+    private final String[] names;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    private Shape(final String[] names, final Map<String, Integer> slots) {
+        this.names = names;
+        this.slots = slots;
+    }
+
+    /**
+     * Slot of a field, -1 when objects of this shape don't have it.
+     */
+    int slot(final String name) {
+        final Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Shape of an object of this shape after adding a field.
+     */
+    Shape with(final String name) {
+        return transitions.computeIfAbsent(name, this::extend);
+    }
+
+    private Shape extend(final String name) {
+        final String[] extended = Arrays.copyOf(names, names.length + 1);
+        extended[names.length] = name;
+        final Map<String, Integer> extendedSlots = new HashMap<>(slots);
+        extendedSlots.put(name, names.length);
+        return new Shape(extended, extendedSlots);
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(final int slot) {
+        return names[slot];
+    }
+}
@@ -0,0 +1,9 @@
+package org.nlang.parser;
+
+/**
+ * Call made by {@code return f(...)}. The returning function hands it back to the function call running it,
+ * which makes the call in its place instead of nesting it, so tail recursion runs in constant stack. A function
+ * calling itself this way gets its own environment back for the call.
+ */
+record TailCall(FunctionDefinitionNode function, Environment scope, Object[] arguments) {
+}
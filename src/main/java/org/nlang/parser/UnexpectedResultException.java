@@ -0,0 +1,22 @@
+package org.nlang.parser;
+
+/**
+ * Thrown by {@link ASTNode#evaluateDouble} and {@link ASTNode#evaluateBoolean} when the node produced a value
+ * of another type. It carries the value, so a specialized node can fall back to its generic form without
+ * evaluating its operands again.
+ */
+public final class UnexpectedResultException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Object result;
+
+    public UnexpectedResultException(final Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+}
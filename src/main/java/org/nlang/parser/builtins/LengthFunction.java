@@ -4,8 +4,8 @@ package org.nlang.parser.builtins;
 import org.nlang.lexer.Token;
 import org.nlang.parser.ASTNode;
 import org.nlang.parser.Environment;
-import org.nlang.parser.EvalResult;
 import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.vm.Compiler;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,12 +30,17 @@ public class LengthFunction {
     private static List<ASTNode> getAstNodes() {
         final ASTNode lengthNode = new ASTNode() {
             @Override
-            public EvalResult evaluate(Environment env) {
-                Object strLen = env.getVariable(new Token(Token.TokenType.IDENTIFIER, "len", 0, 0, 0));
-                if (strLen instanceof String) return new EvalResult((double) ((String) strLen).length(), true);
-                if (strLen instanceof List) return new EvalResult((double) ((List<?>) strLen).size(), true);
+            public Object evaluate(Environment env) {
+                Object strLen = env.getAt(0, 0);
+                if (strLen instanceof CharSequence) return env.returnWith((double) ((CharSequence) strLen).length());
+                if (strLen instanceof List) return env.returnWith((double) ((List<?>) strLen).size());
                 throw new UnsupportedOperationException("Can not call len() other than strings");
             }
+
+            @Override
+            public void compile(Compiler compiler) {
+                throw new IllegalStateException("len() is built in, the VM calls it through the interpreter");
+            }
         };
 
         final List<ASTNode> lengthBody = new ArrayList<>();
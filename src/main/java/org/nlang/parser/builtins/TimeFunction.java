@@ -3,8 +3,8 @@ package org.nlang.parser.builtins;
 import org.nlang.lexer.Token;
 import org.nlang.parser.ASTNode;
 import org.nlang.parser.Environment;
-import org.nlang.parser.EvalResult;
 import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.vm.Compiler;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,9 +16,14 @@ public class TimeFunction {
     public TimeFunction() {
         body.add(new ASTNode() {
             @Override
-            public EvalResult evaluate(Environment env) {
+            public Object evaluate(Environment env) {
 
-                return new EvalResult((double) System.currentTimeMillis(),true);
+                return env.returnWith((double) System.currentTimeMillis());
+            }
+
+            @Override
+            public void compile(Compiler compiler) {
+                throw new IllegalStateException("time() is built in, the VM calls it through the interpreter");
             }
         });
         nLangFunction = new FunctionDefinitionNode(
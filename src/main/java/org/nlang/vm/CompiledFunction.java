@@ -0,0 +1,32 @@
+package org.nlang.vm;
+
+import org.nlang.lexer.Token;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Environment;
+import org.nlang.parser.FunctionDefinitionNode;
+
+import java.util.List;
+
+/**
+ * Function defined by a program running on the VM. It is registered in the environment like any other
+ * function, so the VM calls it directly and the tree walking interpreter can still call it through {@link #call}.
+ */
+public final class CompiledFunction extends FunctionDefinitionNode {
+
+    final FunctionProto proto;
+
+    public CompiledFunction(Token name, List<Token> parameters, List<ASTNode> body, FunctionProto proto) {
+        super(name, parameters, body, proto.memo);
+        this.proto = proto;
+    }
+
+    public FunctionProto getProto() {
+        return proto;
+    }
+
+    @Override
+    public Object call(List<Object> arguments, Environment environment) {
+        checkArity(arguments.size());
+        return new VM(environment).invoke(proto, arguments);
+    }
+}
@@ -0,0 +1,454 @@
+package org.nlang.vm;
+
+import org.nlang.lexer.Token;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.CallSite;
+import org.nlang.parser.FunctionDefinitionNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the statements produced by the parser into bytecode for the {@link VM}.
+ * Each node emits its own instructions through {@link ASTNode#compile(Compiler)}, this class keeps
+ * track of scopes, local slots, the constant pool and the stack depth while doing so.
+ * Locals live on the VM stack, so the slot of a local is the stack position it was pushed to.
+ */
+public final class Compiler {
+
+    private record Local(String name, int depth, int slot) {
+    }
+
+    private record LocalFunction(String name, int depth, FunctionDefinitionNode node, FunctionProto proto) {
+    }
+
+    private final Compiler enclosing;
+    private final FunctionProto proto;
+    private final boolean script;
+    private int[] code = new int[64];
+    private int count;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+    private final List<Local> locals = new ArrayList<>();
+    private final List<LocalFunction> functions = new ArrayList<>();
+    private int scopeDepth;
+    private int stackDepth;
+    private int maxStack;
+
+    private Compiler(final Compiler enclosing, final FunctionProto proto, final boolean script) {
+        this.enclosing = enclosing;
+        this.proto = proto;
+        this.script = script;
+    }
+
+    /**
+     * Compiles a parsed program. Variables and functions defined at the top level become globals of
+     * the environment the program is executed in, like they do for the tree walking interpreter.
+     */
+    public static FunctionProto compile(final List<ASTNode> statements) {
+        final Compiler compiler = new Compiler(null, new FunctionProto(null, 0, null), true);
+        for (ASTNode statement : statements) {
+            compiler.statement(statement);
+        }
+        compiler.emit(OpCode.NIL, 1);
+        compiler.emit(OpCode.RETURN, -1);
+        return compiler.finish();
+    }
+
+    public void expression(final ASTNode node) {
+        node.compile(this);
+    }
+
+    /**
+     * Compiles a statement and drops the value it leaves behind, unless that value is a new local.
+     */
+    public void statement(final ASTNode node) {
+        final int depth = stackDepth;
+        final int localCount = locals.size();
+        node.compile(this);
+        final int leftOver = stackDepth - depth - (locals.size() - localCount);
+        if (leftOver > 0) {
+            pop(leftOver);
+        }
+    }
+
+    public void block(final List<ASTNode> statements) {
+        beginScope();
+        hoist(statements);
+        for (ASTNode statement : statements) {
+            statement(statement);
+        }
+        endScope();
+    }
+
+    public void constant(final Object value) {
+        emit(OpCode.CONSTANT, 1, constantIndex(value));
+    }
+
+    public void nil() {
+        emit(OpCode.NIL, 1);
+    }
+
+    public void literal(final boolean value) {
+        emit(value ? OpCode.TRUE : OpCode.FALSE, 1);
+    }
+
+    public void binary(final Token operator) {
+        final int op = switch (operator.type) {
+            case PLUS -> OpCode.ADD;
+            case MINUS -> OpCode.SUBTRACT;
+            case MULTIPLY -> OpCode.MULTIPLY;
+            case DIVIDE -> OpCode.DIVIDE;
+            case GREATER -> OpCode.GREATER;
+            case SMALLER -> OpCode.LESS;
+            case EQUAL -> OpCode.EQUAL;
+            case NOT_EQUAL -> OpCode.NOT_EQUAL;
+            case AND -> OpCode.AND;
+            case OR -> OpCode.OR;
+            default -> throw new IllegalStateException("Unknown operator: " + operator.value);
+        };
+        emit(op, -1);
+    }
+
+    public void unary(final Token operator) {
+        switch (operator.type) {
+            case MINUS -> emit(OpCode.NEGATE, 0);
+            case NOT -> emit(OpCode.NOT, 0);
+            default -> throw new IllegalStateException("Token type is not suitable for unary");
+        }
+    }
+
+    public void loadVariable(final Token name) {
+        int hops = 0;
+        for (Compiler compiler = this; compiler != null; compiler = compiler.enclosing, hops++) {
+            final Local local = compiler.findLocal(name.value);
+            if (local != null) {
+                if (hops == 0) {
+                    emit(OpCode.GET_LOCAL, 1, local.slot);
+                } else {
+                    emit(OpCode.GET_UPLEVEL, 1, hops, local.slot);
+                }
+                return;
+            }
+        }
+        emit(OpCode.GET_GLOBAL, 1, constantIndex(name));
+    }
+
+    /**
+     * Pops the value on top of the stack into an already declared variable.
+     */
+    public void assignVariable(final Token name) {
+        int hops = 0;
+        for (Compiler compiler = this; compiler != null; compiler = compiler.enclosing, hops++) {
+            final Local local = compiler.findLocal(name.value);
+            if (local != null) {
+                if (hops == 0) {
+                    emit(OpCode.SET_LOCAL, -1, local.slot);
+                } else {
+                    emit(OpCode.SET_UPLEVEL, -1, hops, local.slot);
+                }
+                return;
+            }
+        }
+        emit(OpCode.SET_GLOBAL, -1, constantIndex(name));
+    }
+
+    /**
+     * Declares a variable holding the value on top of the stack. Top level declarations define globals,
+     * declarations inside blocks and functions keep the value on the stack as a new local.
+     */
+    public void declareVariable(final Token name) {
+        if (isGlobalScope()) {
+            emit(OpCode.DEFINE_GLOBAL, -1, constantIndex(name));
+            return;
+        }
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth == scopeDepth; i--) {
+            if (name.value.equals(locals.get(i).name)) {
+                emit(OpCode.SET_LOCAL, -1, locals.get(i).slot);
+                return;
+            }
+        }
+        emit(OpCode.SHARE, 0);
+        addLocal(name.value);
+    }
+
+    public void callFunction(final Token name, final int argumentCount) {
+        int hops = 0;
+        for (Compiler compiler = this; compiler != null; compiler = compiler.enclosing, hops++) {
+            final LocalFunction function = compiler.findFunction(name.value);
+            if (function != null) {
+                emit(OpCode.CALL_LOCAL, 1 - argumentCount, constantIndex(function.proto), hops, argumentCount);
+                return;
+            }
+        }
+        emit(OpCode.CALL_GLOBAL, 1 - argumentCount, constantIndex(new CallSite(name, argumentCount)), argumentCount);
+    }
+
+    public void invoke(final Token name, final int argumentCount) {
+        emit(OpCode.INVOKE, -argumentCount, constantIndex(name), argumentCount);
+    }
+
+    /**
+     * Invokes a mutating method and writes the new receiver value back to the given variable.
+     * When the receiver is the variable itself a list only it owns is changed in place.
+     */
+    public void invokeAndAssign(final Token name, final int argumentCount, final Token variable,
+                                final boolean receiverIsVariable, final boolean resultUsed) {
+        final int flags = (receiverIsVariable ? OpCode.RECEIVER_IS_VARIABLE : 0)
+                | (resultUsed ? OpCode.RESULT_USED : 0);
+        emit(OpCode.INVOKE_UPDATE, 1 - argumentCount, constantIndex(name), argumentCount, flags);
+        assignVariable(variable);
+    }
+
+    public void field(final Token name) {
+        emit(OpCode.GET_FIELD, 0, constantIndex(name));
+    }
+
+    public void index(final Token token) {
+        emit(OpCode.GET_INDEX, -1, constantIndex(token));
+    }
+
+    public void setIndex(final Token token) {
+        emit(OpCode.SET_INDEX, -3, constantIndex(token));
+    }
+
+    /**
+     * Stores an element and writes the list holding it back to the variable, a range is replaced by a copy.
+     */
+    public void setIndexAndAssign(final Token token, final Token variable) {
+        emit(OpCode.SET_INDEX_UPDATE, -2, constantIndex(token));
+        assignVariable(variable);
+    }
+
+    public void list(final int size) {
+        emit(OpCode.BUILD_LIST, 1 - size, size);
+    }
+
+    public void range(final Token token, final boolean inclusive) {
+        emit(OpCode.BUILD_RANGE, -1, constantIndex(token), inclusive ? 1 : 0);
+    }
+
+    public void object() {
+        emit(OpCode.NEW_OBJECT, 1);
+    }
+
+    public void defineField() {
+        emit(OpCode.DEFINE_FIELD, -2);
+    }
+
+    public void print() {
+        emit(OpCode.PRINT, -1);
+    }
+
+    public void printLine() {
+        emit(OpCode.PRINT_LINE, 0);
+    }
+
+    public void returnValue() {
+        emit(OpCode.RETURN, -1);
+    }
+
+    public void ifStatement(final ASTNode condition, final ASTNode body) {
+        expression(condition);
+        final int skip = jump(OpCode.JUMP_IF_FALSE, -1);
+        statement(body);
+        patch(skip);
+    }
+
+    public void assertStatement(final Token token, final ASTNode expr, final ASTNode message) {
+        expression(expr);
+        emit(OpCode.ASSERT_CHECK, 0, constantIndex(token));
+        final int skip = jump(OpCode.JUMP_IF_TRUE, -1);
+        if (message != null) {
+            expression(message);
+        }
+        emit(OpCode.ASSERT_FAIL, message != null ? -1 : 0, constantIndex(token), message != null ? 1 : 0);
+        patch(skip);
+    }
+
+    /**
+     * Numeric for loop. Bounds are evaluated once into hidden locals, the index variable is a fresh
+     * local which is refreshed from the counter on every iteration.
+     */
+    public void rangeLoop(final ASTNode start, final ASTNode end, final boolean inclusive,
+                          final Token indexVariable, final ASTNode body) {
+        beginScope();
+        expression(start);
+        final int counter = addLocal(null);
+        expression(end);
+        final int last = addLocal(null);
+        emit(OpCode.RANGE_PREPARE, 0, counter, last, inclusive ? 1 : 0);
+        nil();
+        final int index = addLocal(indexVariable.value);
+        final int condition = count;
+        final int exit = jump(OpCode.RANGE_NEXT, 0, counter, last, index);
+        statement(body);
+        emit(OpCode.INCREMENT_LOOP, 0, counter, condition);
+        patch(exit);
+        endScope();
+    }
+
+    public void iterableLoop(final ASTNode iterable, final Token iterableToken, final Token loopVariable,
+                             final Token indexVariable, final ASTNode body) {
+        beginScope();
+        expression(iterable);
+        emit(OpCode.ITERABLE_PREPARE, 0, constantIndex(iterableToken));
+        final int cursor = addLocal(null);
+        constant(0.0);
+        final int counter = addLocal(null);
+        nil();
+        final int element = addLocal(loopVariable.value);
+        nil();
+        final int index = addLocal(indexVariable.value);
+        final int condition = count;
+        final int exit = jump(OpCode.ITERABLE_NEXT, 0, cursor, counter, element, index);
+        statement(body);
+        emit(OpCode.INCREMENT_LOOP, 0, counter, condition);
+        patch(exit);
+        endScope();
+    }
+
+    /**
+     * Compiles a function definition. Top level functions are registered in the global environment when
+     * the definition is reached, functions inside blocks and functions were hoisted when the block was entered.
+     */
+    public void function(final FunctionDefinitionNode node, final List<Token> parameters, final List<ASTNode> body) {
+        if (isGlobalScope()) {
+            final FunctionProto function = new FunctionProto(node.name, parameters.size(), node.memo());
+            compileFunction(null, function, parameters, body);
+            emit(OpCode.DEFINE_FUNCTION, 0,
+                    constantIndex(new CompiledFunction(node.name, parameters, body, function)));
+            return;
+        }
+        for (int i = functions.size() - 1; i >= 0; i--) {
+            if (functions.get(i).node == node) {
+                compileFunction(this, functions.get(i).proto, parameters, body);
+                return;
+            }
+        }
+        throw new IllegalStateException("function " + node.name.value + " was not declared");
+    }
+
+    private static void compileFunction(final Compiler enclosing, final FunctionProto function,
+                                        final List<Token> parameters, final List<ASTNode> body) {
+        final Compiler compiler = new Compiler(enclosing, function, false);
+        for (Token parameter : parameters) {
+            compiler.stackDepth++;
+            compiler.addLocal(parameter.value);
+        }
+        compiler.hoist(body);
+        for (ASTNode statement : body) {
+            compiler.statement(statement);
+        }
+        compiler.emit(OpCode.NIL, 1);
+        compiler.emit(OpCode.RETURN, -1);
+        compiler.finish();
+    }
+
+    private boolean isGlobalScope() {
+        return script && scopeDepth == 0;
+    }
+
+    private void hoist(final List<ASTNode> statements) {
+        for (ASTNode statement : statements) {
+            if (statement instanceof FunctionDefinitionNode node) {
+                functions.add(new LocalFunction(node.name.value, scopeDepth, node,
+                        new FunctionProto(node.name, node.getParameters().size(), node.memo())));
+            }
+        }
+    }
+
+    private void beginScope() {
+        scopeDepth++;
+    }
+
+    private void endScope() {
+        scopeDepth--;
+        int popped = 0;
+        while (!locals.isEmpty() && locals.getLast().depth > scopeDepth) {
+            locals.removeLast();
+            popped++;
+        }
+        while (!functions.isEmpty() && functions.getLast().depth > scopeDepth) {
+            functions.removeLast();
+        }
+        if (popped > 0) {
+            pop(popped);
+        }
+    }
+
+    private void pop(final int values) {
+        if (values == 1) {
+            emit(OpCode.POP, -1);
+        } else {
+            emit(OpCode.POP_N, -values, values);
+        }
+    }
+
+    private int addLocal(final String name) {
+        final int slot = stackDepth - 1;
+        locals.add(new Local(name, scopeDepth, slot));
+        return slot;
+    }
+
+    private Local findLocal(final String name) {
+        for (int i = locals.size() - 1; i >= 0; i--) {
+            if (name.equals(locals.get(i).name)) {
+                return locals.get(i);
+            }
+        }
+        return null;
+    }
+
+    private LocalFunction findFunction(final String name) {
+        for (int i = functions.size() - 1; i >= 0; i--) {
+            if (functions.get(i).name.equals(name)) {
+                return functions.get(i);
+            }
+        }
+        return null;
+    }
+
+    private int jump(final int op, final int stackEffect, final int... operands) {
+        final int[] withTarget = Arrays.copyOf(operands, operands.length + 1);
+        emit(op, stackEffect, withTarget);
+        return count - 1;
+    }
+
+    private void patch(final int operand) {
+        code[operand] = count;
+    }
+
+    private int constantIndex(final Object value) {
+        if (value instanceof Double || value instanceof String) {
+            return constantIndexes.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private void emit(final int op, final int stackEffect, final int... operands) {
+        if (count + operands.length + 1 > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, count + operands.length + 1));
+        }
+        code[count++] = op;
+        for (int operand : operands) {
+            code[count++] = operand;
+        }
+        stackDepth += stackEffect;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private FunctionProto finish() {
+        proto.code = Arrays.copyOf(code, count);
+        proto.constants = constants.toArray();
+        proto.maxStack = maxStack + 1;
+        return proto;
+    }
+}
@@ -0,0 +1,57 @@
+package org.nlang.vm;
+
+import org.nlang.lexer.Token;
+import org.nlang.parser.Memo;
+
+/**
+ * Compiled form of a function body or a whole script: the instructions, the constant pool
+ * and the stack space a frame running it needs. The proto of a {@code memo func} carries the declaration of its cache.
+ */
+public final class FunctionProto {
+
+    final Token name;
+    final int arity;
+    final Memo memo;
+    int[] code;
+    Object[] constants;
+    int maxStack;
+
+    FunctionProto(final Token name, final int arity, final Memo memo) {
+        this.name = name;
+        this.arity = arity;
+        this.memo = memo;
+    }
+
+    public Token getName() {
+        return name;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Human readable listing of the instructions, handy when debugging the compiler.
+     */
+    public String disassemble() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("== ").append(name == null ? "<script>" : name.value).append(" ==\n");
+        int ip = 0;
+        while (ip < code.length) {
+            int op = code[ip];
+            sb.append(String.format("%04d %-16s", ip, OpCode.NAMES[op]));
+            for (int i = 1; i <= OpCode.OPERANDS[op]; i++) {
+                sb.append(' ').append(code[ip + i]);
+            }
+            if (op == OpCode.CONSTANT || op == OpCode.GET_GLOBAL || op == OpCode.SET_GLOBAL
+                    || op == OpCode.DEFINE_GLOBAL || op == OpCode.CALL_GLOBAL || op == OpCode.INVOKE
+                    || op == OpCode.INVOKE_UPDATE || op == OpCode.GET_FIELD) {
+                Object constant = constants[code[ip + 1]];
+                sb.append("  ; ").append(constant instanceof Token t ? t.value : constant);
+            }
+            sb.append('\n');
+            ip += 1 + OpCode.OPERANDS[op];
+        }
+        return sb.toString();
+    }
+}
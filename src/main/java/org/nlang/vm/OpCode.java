@@ -0,0 +1,147 @@
+package org.nlang.vm;
+
+/**
+ * Instruction set of the NLang VM. An instruction is one opcode word followed by its operand words.
+ * Operands referring to tokens or names are indexes into the constant pool.
+ */
+public final class OpCode {
+
+    private OpCode() {
+    }
+
+    /** constant: pushes a constant from the pool. */
+    public static final int CONSTANT = 0;
+    public static final int NIL = 1;
+    public static final int TRUE = 2;
+    public static final int FALSE = 3;
+    public static final int POP = 4;
+    /** count: pops count values. */
+    public static final int POP_N = 5;
+
+    /** slot: pushes a local of the current frame. */
+    public static final int GET_LOCAL = 6;
+    /** slot: pops into a local of the current frame. */
+    public static final int SET_LOCAL = 7;
+    /** hops, slot: pushes a local of an enclosing function's frame. */
+    public static final int GET_UPLEVEL = 8;
+    /** hops, slot: pops into a local of an enclosing function's frame. */
+    public static final int SET_UPLEVEL = 9;
+    /** nameToken: pushes a global variable. */
+    public static final int GET_GLOBAL = 10;
+    /** nameToken: pops into an existing global variable. */
+    public static final int SET_GLOBAL = 11;
+    /** nameToken: pops into a new global variable. */
+    public static final int DEFINE_GLOBAL = 12;
+    /** function: registers a compiled function in the global environment. */
+    public static final int DEFINE_FUNCTION = 13;
+
+    /** pops two operands and pushes the result of the binary operator. */
+    public static final int ADD = 14;
+    public static final int SUBTRACT = 15;
+    public static final int MULTIPLY = 16;
+    public static final int DIVIDE = 17;
+    public static final int GREATER = 18;
+    public static final int LESS = 19;
+    public static final int EQUAL = 20;
+    public static final int NOT_EQUAL = 21;
+    public static final int AND = 22;
+    public static final int OR = 23;
+    public static final int NEGATE = 24;
+    public static final int NOT = 25;
+
+    /** target: unconditional jump. */
+    public static final int JUMP = 26;
+    /** target: pops a boolean and jumps when it is false. */
+    public static final int JUMP_IF_FALSE = 27;
+    /** target: pops a boolean and jumps when it is true. */
+    public static final int JUMP_IF_TRUE = 28;
+
+    /** callSite, argc: calls a function registered in the global environment. */
+    public static final int CALL_GLOBAL = 29;
+    /** function, hops, argc: calls a function declared in an enclosing block. */
+    public static final int CALL_LOCAL = 30;
+    /** pops the result and returns from the current frame. */
+    public static final int RETURN = 31;
+
+    /** nameToken, argc: pops arguments and receiver, pushes the result of the built-in method. */
+    public static final int INVOKE = 32;
+    /**
+     * nameToken, argc, flags: like {@link #INVOKE} for mutating methods, pushes the call result and
+     * then the new receiver value which the following store writes back to the variable.
+     * Flag {@link #RECEIVER_IS_VARIABLE} allows changing the receiver in place, without
+     * {@link #RESULT_USED} null is pushed instead of a copy of the result.
+     */
+    public static final int INVOKE_UPDATE = 33;
+    public static final int RECEIVER_IS_VARIABLE = 1;
+    public static final int RESULT_USED = 2;
+    /** nameToken: replaces the object on top of the stack with one of its fields. */
+    public static final int GET_FIELD = 34;
+    /** token: pops index and target, pushes the element. */
+    public static final int GET_INDEX = 35;
+    /** token: pops value, index and target and stores the element. */
+    public static final int SET_INDEX = 36;
+    /** count: pops count values and pushes them as a list. */
+    public static final int BUILD_LIST = 37;
+    public static final int NEW_OBJECT = 38;
+    /** pops value and key and defines the field on the object below them. */
+    public static final int DEFINE_FIELD = 39;
+
+    public static final int PRINT = 40;
+    public static final int PRINT_LINE = 41;
+    /** token: checks that the top of the stack is a boolean, leaves it in place. */
+    public static final int ASSERT_CHECK = 42;
+    /** token, hasMessage: raises an assertion error, popping the message when present. */
+    public static final int ASSERT_FAIL = 43;
+
+    /** counterSlot, endSlot, inclusive: converts the bounds of a numeric for loop in place. */
+    public static final int RANGE_PREPARE = 44;
+    /** counterSlot, endSlot, indexSlot, exit: starts the next iteration of a numeric for loop. */
+    public static final int RANGE_NEXT = 45;
+    /** token: replaces the value on top of the stack with the cursor a for-in loop walks it with. */
+    public static final int ITERABLE_PREPARE = 46;
+    /** cursorSlot, counterSlot, elementSlot, indexSlot, exit: next iteration of a for-in loop. */
+    public static final int ITERABLE_NEXT = 47;
+    /** slot, target: increments a loop counter and jumps back to the loop condition. */
+    public static final int INCREMENT_LOOP = 48;
+
+    /** marks the value on top of the stack as held by the local it was just declared as. */
+    public static final int SHARE = 49;
+    /** token, inclusive: replaces the two bounds on top of the stack with a range value. */
+    public static final int BUILD_RANGE = 50;
+    /**
+     * token: like {@link #SET_INDEX}, then pushes the list holding the element, a copy when the target is a
+     * range, which the following store writes back to the variable.
+     */
+    public static final int SET_INDEX_UPDATE = 51;
+
+    static final String[] NAMES = {
+            "CONSTANT", "NIL", "TRUE", "FALSE", "POP", "POP_N",
+            "GET_LOCAL", "SET_LOCAL", "GET_UPLEVEL", "SET_UPLEVEL",
+            "GET_GLOBAL", "SET_GLOBAL", "DEFINE_GLOBAL", "DEFINE_FUNCTION",
+            "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "GREATER", "LESS", "EQUAL", "NOT_EQUAL",
+            "AND", "OR", "NEGATE", "NOT",
+            "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+            "CALL_GLOBAL", "CALL_LOCAL", "RETURN",
+            "INVOKE", "INVOKE_UPDATE", "GET_FIELD", "GET_INDEX", "SET_INDEX",
+            "BUILD_LIST", "NEW_OBJECT", "DEFINE_FIELD",
+            "PRINT", "PRINT_LINE", "ASSERT_CHECK", "ASSERT_FAIL",
+            "RANGE_PREPARE", "RANGE_NEXT", "ITERABLE_PREPARE", "ITERABLE_NEXT", "INCREMENT_LOOP",
+            "SHARE", "BUILD_RANGE", "SET_INDEX_UPDATE"
+    };
+
+    /** Number of operand words following each opcode. */
+    static final int[] OPERANDS = {
+            1, 0, 0, 0, 0, 1,
+            1, 1, 2, 2,
+            1, 1, 1, 1,
+            0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0,
+            1, 1, 1,
+            2, 3, 0,
+            2, 3, 1, 1, 1,
+            1, 0, 0,
+            0, 0, 1, 2,
+            3, 4, 1, 5, 2,
+            0, 2, 1
+    };
+}
@@ -0,0 +1,406 @@
+package org.nlang.vm;
+
+import org.nlang.err.Err;
+import org.nlang.lexer.Token;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.CallSite;
+import org.nlang.parser.Cursor;
+import org.nlang.parser.Environment;
+import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.parser.Memo;
+import org.nlang.parser.NList;
+import org.nlang.parser.NObjectInstance;
+import org.nlang.parser.Operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stack based virtual machine executing the bytecode produced by {@link Compiler}.
+ * Locals of all active calls share one value stack, globals are kept in the {@link Environment}
+ * so programs can be mixed with the tree walking interpreter in the same session.
+ */
+public final class VM {
+
+    private static final int MAX_FRAMES = 100_000;
+
+    private static final class CallFrame {
+        FunctionProto proto;
+        int ip;
+        int base;
+        CallFrame staticLink;
+        /** key of the arguments of a call to a memoized function, its result is cached on return. */
+        Object memoKey;
+    }
+
+    private final Environment globals;
+    private Object[] stack = new Object[256];
+    private int sp;
+    private CallFrame[] frames = new CallFrame[16];
+    private int frameCount;
+
+    public VM(final Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Runs a script, returns the value of a {@code return} at its top level or null.
+     */
+    public static Object execute(final FunctionProto script, final Environment environment) {
+        return new VM(environment).invoke(script, List.of());
+    }
+
+    /**
+     * Runs the function with the given arguments and returns its result.
+     */
+    public Object invoke(final FunctionProto proto, final List<Object> arguments) {
+        Object memoKey = null;
+        if (proto.memo != null) {
+            memoKey = Memo.key(arguments.toArray());
+            final Object cached = globals.memo(proto.memo).get(memoKey);
+            if (cached != Memo.MISSING) {
+                return cached;
+            }
+        }
+        for (Object argument : arguments) {
+            push(Operations.share(argument));
+        }
+        pushFrame(proto, sp - arguments.size(), null).memoKey = memoKey;
+        return run(frameCount - 1);
+    }
+
+    private Object run(final int entryFrame) {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.proto.code;
+        Object[] constants = frame.proto.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> stack[sp++] = constants[code[ip++]];
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP -> stack[--sp] = null;
+                case OpCode.POP_N -> {
+                    final int values = code[ip++];
+                    Arrays.fill(stack, sp - values, sp, null);
+                    sp -= values;
+                }
+                case OpCode.GET_LOCAL -> stack[sp++] = stack[base + code[ip++]];
+                case OpCode.SET_LOCAL -> {
+                    final int slot = base + code[ip++];
+                    stack[slot] = Operations.store(stack[slot], stack[--sp]);
+                }
+                case OpCode.GET_UPLEVEL -> {
+                    final CallFrame outer = outerFrame(frame, code[ip++]);
+                    stack[sp++] = stack[outer.base + code[ip++]];
+                }
+                case OpCode.SET_UPLEVEL -> {
+                    final CallFrame outer = outerFrame(frame, code[ip++]);
+                    final int slot = outer.base + code[ip++];
+                    stack[slot] = Operations.store(stack[slot], stack[--sp]);
+                }
+                case OpCode.GET_GLOBAL -> stack[sp++] = globals.getVariable((Token) constants[code[ip++]]);
+                case OpCode.SET_GLOBAL -> globals.assignVariable((Token) constants[code[ip++]], stack[--sp]);
+                case OpCode.DEFINE_GLOBAL -> globals.defineVariable((Token) constants[code[ip++]], stack[--sp]);
+                case OpCode.DEFINE_FUNCTION -> globals.addFunction((CompiledFunction) constants[code[ip++]]);
+                case OpCode.ADD -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] + (double) right;
+                }
+                case OpCode.SUBTRACT -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] - (double) right;
+                }
+                case OpCode.MULTIPLY -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] * (double) right;
+                }
+                case OpCode.DIVIDE -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] / (double) right;
+                }
+                case OpCode.GREATER -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] > (double) right;
+                }
+                case OpCode.LESS -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] < (double) right;
+                }
+                case OpCode.EQUAL -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = Operations.equal(stack[sp - 1], right);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = !Operations.equal(stack[sp - 1], right);
+                }
+                case OpCode.AND -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (boolean) stack[sp - 1] && (boolean) right;
+                }
+                case OpCode.OR -> {
+                    final Object right = stack[--sp];
+                    stack[sp - 1] = (boolean) stack[sp - 1] || (boolean) right;
+                }
+                case OpCode.NEGATE -> stack[sp - 1] = -(double) stack[sp - 1];
+                case OpCode.NOT -> stack[sp - 1] = !(boolean) stack[sp - 1];
+                case OpCode.JUMP -> ip = code[ip];
+                case OpCode.JUMP_IF_FALSE -> ip = (boolean) stack[--sp] ? ip + 1 : code[ip];
+                case OpCode.JUMP_IF_TRUE -> ip = (boolean) stack[--sp] ? code[ip] : ip + 1;
+                case OpCode.CALL_GLOBAL, OpCode.CALL_LOCAL -> {
+                    final int op = code[ip - 1];
+                    final Object callee = constants[code[ip++]];
+                    final FunctionProto target;
+                    CallFrame staticLink = null;
+                    if (op == OpCode.CALL_LOCAL) {
+                        target = (FunctionProto) callee;
+                        staticLink = outerFrame(frame, code[ip++]);
+                    } else {
+                        final ASTNode function = ((CallSite) callee).function(globals);
+                        if (!(function instanceof CompiledFunction compiled)) {
+                            final int argumentCount = code[ip++];
+                            final List<Object> arguments = new ArrayList<>(argumentCount);
+                            for (int i = sp - argumentCount; i < sp; i++) {
+                                arguments.add(stack[i]);
+                                stack[i] = null;
+                            }
+                            sp -= argumentCount;
+                            this.sp = sp;
+                            final Object result = ((FunctionDefinitionNode) function).call(arguments, globals);
+                            stack = this.stack;
+                            stack[sp++] = result;
+                            continue;
+                        }
+                        target = compiled.proto;
+                    }
+                    final int argumentCount = code[ip++];
+                    Object memoKey = null;
+                    if (target.memo != null) {
+                        memoKey = Memo.key(Arrays.copyOfRange(stack, sp - argumentCount, sp));
+                        final Object cached = globals.memo(target.memo).get(memoKey);
+                        if (cached != Memo.MISSING) {
+                            Arrays.fill(stack, sp - argumentCount, sp, null);
+                            sp -= argumentCount;
+                            stack[sp++] = cached;
+                            continue;
+                        }
+                    }
+                    if (code[ip] == OpCode.RETURN && staticLink != frame
+                            && memoKey == null && frame.memoKey == null) {
+                        // A call whose result is returned right away reuses the caller's frame, an argument
+                        // passed on in its own parameter slot keeps its owners. Memoized calls keep their
+                        // frames to cache their results on return.
+                        for (int i = 0; i < argumentCount; i++) {
+                            stack[base + i] = Operations.store(stack[base + i], stack[sp - argumentCount + i]);
+                        }
+                        Arrays.fill(stack, base + argumentCount, sp, null);
+                        this.sp = base + argumentCount;
+                        frame.proto = target;
+                        frame.staticLink = staticLink;
+                        ensureStack(base + target.maxStack);
+                        sp = this.sp;
+                        stack = this.stack;
+                        code = target.code;
+                        constants = target.constants;
+                        ip = 0;
+                        continue;
+                    }
+                    for (int i = sp - argumentCount; i < sp; i++) {
+                        Operations.share(stack[i]);
+                    }
+                    frame.ip = ip;
+                    this.sp = sp;
+                    frame = pushFrame(target, sp - argumentCount, staticLink);
+                    frame.memoKey = memoKey;
+                    stack = this.stack;
+                    code = target.code;
+                    constants = target.constants;
+                    ip = 0;
+                    base = frame.base;
+                }
+                case OpCode.RETURN -> {
+                    final Object result = stack[--sp];
+                    if (frame.memoKey != null) {
+                        globals.memo(frame.proto.memo).put(frame.memoKey, result);
+                        frame.memoKey = null;
+                    }
+                    Arrays.fill(stack, frame.base, sp, null);
+                    sp = frame.base;
+                    frame.staticLink = null;
+                    frameCount--;
+                    if (frameCount == entryFrame) {
+                        this.sp = sp;
+                        return result;
+                    }
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.proto.code;
+                    constants = frame.proto.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case OpCode.INVOKE, OpCode.INVOKE_UPDATE -> {
+                    final int op = code[ip - 1];
+                    final Token name = (Token) constants[code[ip++]];
+                    final int argumentCount = code[ip++];
+                    final int flags = op == OpCode.INVOKE_UPDATE ? code[ip++] : 0;
+                    final List<Object> arguments = new ArrayList<>(argumentCount);
+                    for (int i = sp - argumentCount; i < sp; i++) {
+                        arguments.add(stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= argumentCount;
+                    final Object receiver = stack[sp - 1];
+                    final Object result = Operations.invokeMethod(receiver, name, arguments,
+                            (flags & OpCode.RECEIVER_IS_VARIABLE) != 0);
+                    if (op == OpCode.INVOKE_UPDATE) {
+                        final boolean updated = Operations.isUpdatable(receiver);
+                        if (!updated) {
+                            stack[sp - 1] = result;
+                        } else {
+                            stack[sp - 1] = (flags & OpCode.RESULT_USED) != 0 ? Operations.copyOf(result) : null;
+                        }
+                        stack[sp++] = updated ? result : receiver;
+                    } else {
+                        stack[sp - 1] = result;
+                    }
+                }
+                case OpCode.GET_FIELD -> stack[sp - 1] = Operations.field(stack[sp - 1], (Token) constants[code[ip++]]);
+                case OpCode.GET_INDEX -> {
+                    final Object index = stack[--sp];
+                    stack[sp - 1] = Operations.index(stack[sp - 1], index, (Token) constants[code[ip++]]);
+                }
+                case OpCode.SET_INDEX -> {
+                    final Object value = stack[--sp];
+                    final Object index = stack[--sp];
+                    Operations.setIndex(stack[--sp], index, value, (Token) constants[code[ip++]], false);
+                }
+                case OpCode.SET_INDEX_UPDATE -> {
+                    final Object value = stack[--sp];
+                    final Object index = stack[--sp];
+                    stack[sp - 1] = Operations.setIndex(stack[sp - 1], index, value, (Token) constants[code[ip++]],
+                            true);
+                }
+                case OpCode.BUILD_LIST -> {
+                    final int size = code[ip++];
+                    final NList list = new NList();
+                    for (int i = sp - size; i < sp; i++) {
+                        list.add(stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= size;
+                    stack[sp++] = list;
+                }
+                case OpCode.NEW_OBJECT -> stack[sp++] = new NObjectInstance();
+                case OpCode.DEFINE_FIELD -> {
+                    final Object value = stack[--sp];
+                    final Object key = stack[--sp];
+                    ((NObjectInstance) stack[sp - 1]).defineField(key, value);
+                }
+                case OpCode.PRINT -> Operations.print(stack[--sp]);
+                case OpCode.PRINT_LINE -> System.out.println();
+                case OpCode.ASSERT_CHECK -> {
+                    final Token token = (Token) constants[code[ip++]];
+                    if (!(stack[sp - 1] instanceof Boolean)) {
+                        throw Err.err("Assert only accepts expr which evaluates to boolean", token);
+                    }
+                }
+                case OpCode.ASSERT_FAIL -> {
+                    final Token token = (Token) constants[code[ip++]];
+                    if (code[ip++] == 1) {
+                        throw Err.err(String.format("Assertion failed: %s", stack[--sp]), token);
+                    }
+                    throw Err.err("Assertion failed: ", token);
+                }
+                case OpCode.RANGE_PREPARE -> {
+                    final int counter = base + code[ip++];
+                    final int end = base + code[ip++];
+                    final int endValue = ((Double) stack[end]).intValue();
+                    stack[counter] = (double) ((Double) stack[counter]).intValue();
+                    stack[end] = (double) (code[ip++] == 1 ? endValue + 1 : endValue);
+                }
+                case OpCode.RANGE_NEXT -> {
+                    final Object counter = stack[base + code[ip]];
+                    if ((Double) counter < (Double) stack[base + code[ip + 1]]) {
+                        stack[base + code[ip + 2]] = counter;
+                        ip += 4;
+                    } else {
+                        ip = code[ip + 3];
+                    }
+                }
+                case OpCode.ITERABLE_PREPARE ->
+                        stack[sp - 1] = Operations.iterate(stack[sp - 1], (Token) constants[code[ip++]]);
+                case OpCode.ITERABLE_NEXT -> {
+                    final Cursor cursor = (Cursor) stack[base + code[ip]];
+                    if (cursor.hasNext()) {
+                        stack[base + code[ip + 2]] = Operations.share(cursor.next());
+                        stack[base + code[ip + 3]] = stack[base + code[ip + 1]];
+                        ip += 5;
+                    } else {
+                        ip = code[ip + 4];
+                    }
+                }
+                case OpCode.SHARE -> Operations.share(stack[sp - 1]);
+                case OpCode.BUILD_RANGE -> {
+                    final Token token = (Token) constants[code[ip++]];
+                    final Object end = stack[--sp];
+                    stack[sp - 1] = Operations.range(stack[sp - 1], end, code[ip++] == 1, token);
+                }
+                case OpCode.INCREMENT_LOOP -> {
+                    final int counter = base + code[ip];
+                    stack[counter] = (Double) stack[counter] + 1;
+                    ip = code[ip + 1];
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private static CallFrame outerFrame(final CallFrame frame, final int hops) {
+        CallFrame outer = frame;
+        for (int i = 0; i < hops; i++) {
+            outer = outer.staticLink;
+        }
+        return outer;
+    }
+
+    private CallFrame pushFrame(final FunctionProto proto, final int base, final CallFrame staticLink) {
+        if (frameCount == frames.length) {
+            if (frameCount == MAX_FRAMES) {
+                throw Err.err("Stack overflow in function call: ", proto.name);
+            }
+            frames = Arrays.copyOf(frames, Math.min(frames.length * 2, MAX_FRAMES));
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.proto = proto;
+        frame.ip = 0;
+        frame.base = base;
+        frame.staticLink = staticLink;
+        frame.memoKey = null;
+        ensureStack(base + proto.maxStack);
+        return frame;
+    }
+
+    private void push(final Object value) {
+        ensureStack(sp + 1);
+        stack[sp++] = value;
+    }
+
+    private void ensureStack(final int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size));
+        }
+    }
+}
@@ -265,4 +265,44 @@ class BasicTests {
     }
 
 
-}
\ No newline at end of file
+    @Test
+    void test_OperatorsKeepWorkingWhenOperandTypesChange() {
+
+        String test = """
+                func same(a, b) {
+                    return a == b;
+                }
+                func sum(a, b) {
+                    return a + b * 2 - -1;
+                }
+                print(same(1, 1), same(1, 2));
+                print(same("x", "x"), same("x", "y"));
+                print(same(true, true), same(true, 1));
+                print(same(2, 2), same([1], [1]));
+                print(sum(1, 2), sum(0.5, 0.25));
+                """;
+        run(test);
+        String expected = """
+                truefalse
+                truefalse
+                truefalse
+                truetrue
+                62
+                """;
+        assertEquals(sanitize(expected), sanitize(outputStream.toString()));
+        assertTrue(errStream.toString().isEmpty());
+    }
+
+    @Test
+    void test_OperatorsBindByPrecedence() {
+
+        String test = """
+                make r = 1 + 1..2 * 3;
+                print(2 + 3 * 4 - 6 / 2 / 3, 1 + 2 > 2 and 3 > 4 or 1 == 1, r[1], !false == true, -2 * -3);
+                """;
+        run(test);
+        assertEquals(sanitize("13true3true6\n"), sanitize(outputStream.toString()));
+        assertTrue(errStream.toString().isEmpty());
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.Test;
+import org.nlang.Program;
+import org.nlang.parser.Environment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class ConcurrencyTests {
+
+    private static final String PROGRAM = """
+            memo func fib(n) {
+                if (n < 2) {
+                    return n;
+                }
+                return fib(n - 1) + fib(n - 2);
+            }
+            memo func scaled(n) {
+                return n * seed;
+            }
+            func square(x) {
+                return x * x;
+            }
+            func total(n) {
+                make s = 0;
+                for 0..n : k {
+                    s = s + square(k) - k;
+                }
+                return s;
+            }
+            make items = [];
+            for 0..50 : k {
+                items.add(k * seed);
+            }
+            make sum = 0;
+            for x in items {
+                sum = sum + x;
+            }
+            make obj = { "seed": seed, "items": items };
+            make result = [obj.seed, fib(seed), scaled(3), total(2000), sum, len(obj.items)];
+            """;
+
+    private static Environment environment(int seed) {
+        Environment environment = new Environment();
+        environment.defineVariable(new Token(Token.TokenType.IDENTIFIER, "seed", 0, 0, 0), (double) seed);
+        return environment;
+    }
+
+    private static Object result(Environment environment) {
+        return environment.getVariable(new Token(Token.TokenType.IDENTIFIER, "result", 0, 0, 0));
+    }
+
+    private static double fib(int n) {
+        return n < 2 ? n : fib(n - 1) + fib(n - 2);
+    }
+
+    @Test
+    void test_OneParsedProgramRunsOnManyThreadsAtOnce() throws Exception {
+        Program program = Program.parse(PROGRAM, environment(0), false, Boolean.getBoolean("nlang.vm"));
+        int threads = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Object>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    List<Object> results = new ArrayList<>();
+                    for (int run = 0; run < 20; run++) {
+                        Environment environment = environment(seed);
+                        program.run(environment);
+                        results.add(result(environment));
+                    }
+                    return results;
+                }));
+            }
+            for (int t = 0; t < threads; t++) {
+                List<Double> expected = List.of((double) t, fib(t), 3.0 * t, 2662668000.0, 1225.0 * t, 50.0);
+                for (Object result : futures.get(t).get()) {
+                    assertEquals(expected, result);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
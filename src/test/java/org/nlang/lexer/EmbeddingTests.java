@@ -0,0 +1,83 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.Test;
+import org.nlang.api.NLang;
+import org.nlang.api.Script;
+import org.nlang.api.ScriptError;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+class EmbeddingTests {
+
+    @Test
+    void test_CompiledScriptRunsWithEachRunsBindings() {
+        Script rule = NLang.compile("""
+                func discounted(price) {
+                    return price * (1 - discount);
+                }
+                make totals = [];
+                for p in prices {
+                    totals.add(discounted(p));
+                }
+                return { "customer": customer.name, "totals": totals };
+                """);
+
+        Object first = rule.run(Map.of("prices", List.of(100, 40), "discount", 0.25,
+                "customer", Map.of("name", "ada")));
+        Object second = rule.run(Map.of("prices", List.of(10), "discount", 0,
+                "customer", Map.of("name", "bob")));
+
+        assertEquals(Map.of("customer", "ada", "totals", List.of(75.0, 30.0)), first);
+        assertEquals(Map.of("customer", "bob", "totals", List.of(10.0)), second);
+    }
+
+    @Test
+    void test_ErrorsPointAtTheFailingToken() {
+        ScriptError parseError = assertThrows(ScriptError.class, () -> NLang.compile("""
+                make a = 1;
+                make b = [1, 2;
+                """));
+        assertEquals("Expecting ] for array", parseError.reason());
+        assertEquals(2, parseError.line());
+
+        Script script = NLang.compile("""
+                make a = 1;
+                return a + missing;
+                """);
+        ScriptError runError = assertThrows(ScriptError.class, script::run);
+        assertEquals("Undefined variable: missing", runError.reason());
+        assertEquals(2, runError.line());
+        assertEquals(12, runError.column());
+    }
+
+    @Test
+    void test_ScriptEngineEvaluatesWithBindings() throws ScriptException {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("nlang");
+        Bindings bindings = engine.createBindings();
+        bindings.put("x", 20);
+        bindings.put("name", "n");
+
+        assertEquals(42.0, engine.eval("return x * 2 + 2;", bindings));
+        assertEquals("n!", engine.eval("make s = name; s.add(\"!\"); return s;", bindings));
+
+        CompiledScript square = ((Compilable) engine).compile("return x * x;");
+        bindings.put("x", 3);
+        assertEquals(9.0, square.eval(bindings));
+        bindings.put("x", 4);
+        assertEquals(16.0, square.eval(bindings));
+
+        ScriptException error = assertThrows(ScriptException.class, () -> engine.eval("return len(1);"));
+        assertEquals("Can not call len() other than strings", error.getCause().getMessage());
+    }
+}
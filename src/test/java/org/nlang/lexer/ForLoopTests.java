@@ -181,4 +181,53 @@ class ForLoopTests {
         assertEquals(sanitize(expected), sanitize(outputStream.toString()));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void test_parallelLoopCombinesReductionsInIterationOrder() {
+        String test = """
+                make total = 5;
+                make squares = [];
+                make small = true;
+                pfor 0..1000 : k reduce(total: +, squares: add, small: and) {
+                    make square = k * k;
+                    total = total + square;
+                    if (k < 4 or k > 997) {
+                        squares.add(square);
+                    }
+                    small = small and square < 1000000;
+                }
+                make product = 1;
+                pfor 1..=5 reduce(product: *) {
+                    product = product * i;
+                }
+                print(total);
+                print(squares);
+                print(small, product);
+                """;
+
+        run(test);
+        String expected = """
+                332833505
+                [0, 1, 4, 9, 996004, 998001]
+                true120
+                """;
+        assertEquals(sanitize(expected), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_parallelLoopCantAssignOuterVariable() {
+        String test = """
+                make total = 0;
+                pfor 0..10 {
+                    total = total + i;
+                }
+                print(total);
+                """;
+
+        run(test);
+        assertEquals("", outputStream.toString());
+        assertEquals(sanitize("Error: Variable total is declared outside of pfor, it can only be changed "
+                        + "through reduce:  at line 3:5"),
+                sanitize(errStream.toString().lines().toList().getLast()));
+    }
+}
@@ -4,13 +4,17 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.nlang.Main;
+import org.nlang.Program;
 import org.nlang.err.Err;
 import org.nlang.parser.ASTNode;
 import org.nlang.parser.Environment;
 import org.nlang.parser.ASTNode.*;
 import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.parser.Memo;
 import org.nlang.parser.Parser;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nlang.lexer.IterableTests.sanitize;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.List;
@@ -40,6 +44,18 @@ class FunctionTests {
         Main.processInput(code, environment);
     }
 
+    /**
+     * Runs the code on the tree walker, which compiles hot functions, also when the suite runs on the VM.
+     */
+    private void runOnTreeWalker(String code) {
+        Program.parse(code, environment, false, false).run(environment);
+    }
+
+    private boolean isCompiled(String function) {
+        Token name = new Token(Token.TokenType.IDENTIFIER, function, 0, 0, 0);
+        return ((FunctionDefinitionNode) environment.getFunction(name)).isCompiled();
+    }
+
 
     @Test
     void test_functionShouldWorkFineForBasicCase() {
@@ -142,4 +158,274 @@ class FunctionTests {
         assertEquals("6765" + System.lineSeparator(), outputStream.toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    void test_FunctionDefinedInLoopBodySeesLoopVariable() {
+        String test = """
+                make total = 0;
+                for 1..=3 {
+                    make doubled = twice(i);
+                    total = total + doubled;
+                    func twice(x) {
+                        return x * 2 + i - i;
+                    }
+                }
+                print(total);
+                """;
+
+        run(test);
+        assertEquals("12" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_ReturnInsideLoopLeavesFunction() {
+        String test = """
+                func find(nums, target) {
+                    for x in nums {
+                        if (x == target) {
+                            return i;
+                        }
+                    }
+                    return -1;
+                }
+                print(find([4, 5, 6], 5));
+                print(find([4, 5, 6], 7));
+                """;
+
+        run(test);
+        assertEquals("1" + System.lineSeparator() + "-1" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_CallStatementDoesNotReturnFromCaller() {
+        String test = """
+                func one() {
+                    return 1;
+                }
+                func two() {
+                    one();
+                    return 2;
+                }
+                print(two());
+                """;
+
+        run(test);
+        assertEquals("2" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_CallSeesRedefinedFunction() {
+        String test = """
+                func value() {
+                    return 1;
+                }
+                func read() {
+                    return value();
+                }
+                print(read());
+                func value() {
+                    return 2;
+                }
+                print(read());
+                """;
+
+        run(test);
+        assertEquals("1" + System.lineSeparator() + "2" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_ArgumentCountOfLocalFunctionIsCheckedBeforeRunning() {
+        String test = """
+                {
+                    func add(a, b) {
+                        return a + b;
+                    }
+                    print(1);
+                    make flag = false;
+                    if (flag) {
+                        print(add(1));
+                    }
+                }
+                """;
+
+        run(test);
+        assertEquals("", outputStream.toString());
+        assertEquals(sanitize("Error: Argument count mismatch in function call:  at line 2:10"),
+                sanitize(errStream.toString().lines().toList().getLast()));
+    }
+
+    @Test
+    void test_HotFunctionsGiveTheSameResults() {
+        String test = """
+                func fib(n) {
+                    if (n < 2) {
+                        return n;
+                    }
+                    return fib(n - 1) + fib(n - 2);
+                }
+                func sum(n) {
+                    make s = 0;
+                    for 0..=n : k {
+                        if (k == 3 or !(k > 5)) {
+                            s = s - 1;
+                        }
+                        s = s + k / 2;
+                    }
+                    return s;
+                }
+                print(fib(20));
+                print(sum(10));
+                print(sum(3000));
+                print(sum(10));
+                """;
+
+        runOnTreeWalker(test);
+        assertEquals(String.join(System.lineSeparator(), "6765", "21.5", "2250744", "21.5", ""),
+                outputStream.toString());
+        assertTrue(isCompiled("fib"));
+        assertTrue(isCompiled("sum"));
+    }
+
+    @Test
+    void test_HotFunctionCalledWithOtherTypesFallsBackToTreeWalking() {
+        String test = """
+                func same(a, b) {
+                    if (a == b) {
+                        return 1;
+                    }
+                    return 0;
+                }
+                make count = 0;
+                for 0..3000 : k {
+                    count = count + same(k, 7);
+                }
+                print(count);
+                """;
+
+        runOnTreeWalker(test);
+        assertTrue(isCompiled("same"));
+
+        runOnTreeWalker("""
+                print(same("x", "x"));
+                print(same(true, false));
+                """);
+        assertEquals(String.join(System.lineSeparator(), "1", "1", "0", ""), outputStream.toString());
+        // the compiled code only takes numbers, so the strings and booleans were compared by the tree walker
+        assertTrue(isCompiled("same"));
+    }
+
+    @Test
+    void test_TailCallsRunInConstantStack() {
+        String test = """
+                func sum(n, acc) {
+                    if (n < 1) {
+                        return acc;
+                    }
+                    make next = n - 1;
+                    return sum(next, acc + n);
+                }
+                func even(n) {
+                    if (n < 1) {
+                        return true;
+                    }
+                    return odd(n - 1);
+                }
+                func odd(n) {
+                    if (n < 1) {
+                        return false;
+                    }
+                    return even(n - 1);
+                }
+                func build(list, n) {
+                    if (n < 1) {
+                        return list;
+                    }
+                    list.add(n);
+                    return build(list, n - 1);
+                }
+                print(sum(50000, 0));
+                print(even(200001));
+                print(len(build([], 200000)));
+                """;
+
+        run(test);
+        assertEquals(String.join(System.lineSeparator(), "1250025000", "false", "200000", ""),
+                outputStream.toString());
+    }
+
+    @Test
+    void test_TailCallOfLocalFunctionSeesEnclosingVariables() {
+        String test = """
+                func outer(n) {
+                    make offset = n * 10;
+                    {
+                        func inner(k) {
+                            return k + offset;
+                        }
+                        return inner(n);
+                    }
+                }
+                print(outer(1));
+                print(outer(2));
+                """;
+
+        run(test);
+        assertEquals("11" + System.lineSeparator() + "22" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_MemoizedFunctionComputesEachArgumentOnce() {
+        String test = """
+                memo func fib(n) {
+                    if (n < 2) {
+                        return n;
+                    }
+                    return fib(n - 1) + fib(n - 2);
+                }
+                print(fib(40));
+                """;
+
+        run(test);
+        assertEquals("102334155" + System.lineSeparator(), outputStream.toString());
+        Memo memo = environment.memo(((FunctionDefinitionNode) environment.getFunction(
+                new Token(Token.TokenType.IDENTIFIER, "fib", 0, 0, 0))).memo());
+        assertEquals(41, memo.misses());
+        assertEquals(38, memo.hits());
+    }
+
+    @Test
+    void test_MemoizedFunctionEvictsLeastRecentlyUsedResult() {
+        String test = """
+                memo(2) func square(n) {
+                    print("square ", n);
+                    return n * n;
+                }
+                square(1);
+                square(2);
+                square(1);
+                square(3);
+                square(2);
+                square(3);
+                """;
+
+        run(test);
+        assertEquals(String.join(System.lineSeparator(), "square 1", "square 2", "square 3", "square 2", ""),
+                outputStream.toString());
+    }
+
+    @Test
+    void test_MemoizedResultCantBeChangedByCaller() {
+        String test = """
+                memo func wrap(name) {
+                    return [name];
+                }
+                make a = wrap("x");
+                a.add(1);
+                print(a);
+                print(wrap("x"));
+                """;
+
+        run(test);
+        assertEquals("[x, 1]" + System.lineSeparator() + "[x]" + System.lineSeparator(), outputStream.toString());
+    }
+
+}
@@ -8,8 +8,11 @@ import org.nlang.Main;
 import org.nlang.parser.Environment;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.time.Duration;
 
 class IterableTests {
 
@@ -245,6 +248,197 @@ class IterableTests {
     }
 
 
+    @Test
+    void test_List_keepsValueSemantics_When_AddIsCalledOnSharedList() {
+        String test = """
+                make a = [1, 2];
+                make b = a;
+                a.add(3);
+                make c = a.add(4);
+                c[0] = 7;
+                func grow(l) {
+                    l.add(100);
+                    return l;
+                }
+                make d = grow(a);
+                for x in b {
+                    b.add(x);
+                }
+                print(a, b, c, d);
+                """;
+
+        run(test);
+        assertEquals("[1, 2, 3, 4][1, 2, 1, 2][7, 2, 3, 4][1, 2, 3, 4, 100]" + System.lineSeparator(),
+                outputStream.toString());
+    }
+
+    @Test
+    void test_List_containsItsOldValue_When_AddedToItself() {
+        String test = """
+                make a = [1];
+                a.add(2);
+                a.add(a);
+                print(a);
+                """;
+
+        run(test);
+        assertEquals("[1, 2, [1, 2]]" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_List_growsInLinearTime_When_AddIsCalledInLoop() {
+        String test = """
+                func build(n) {
+                    make result = [];
+                    for 0..n {
+                        result.add(i);
+                    }
+                    result.remove(0);
+                    return result;
+                }
+                make list = build(300000);
+                print(len(list), list.last());
+                """;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> run(test));
+        assertEquals("299999299999" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_String_keepsValueSemantics_When_AddIsCalledOnSharedString() {
+        String test = """
+                make s = "ab";
+                make t = s;
+                s.add("c");
+                make u = s.add("d");
+                print(s, t, u, s == "abcd", u == s);
+                print(s.first(), s.last(), s.reverse(), len(s));
+                make l = ["x", "y"];
+                make y = "";
+                y.add("y");
+                l.remove(y);
+                for c in t {
+                    t.add(c);
+                }
+                print(l, t);
+                """;
+
+        run(test);
+        assertEquals(sanitize("abcdababcdtruetrue\naddcba4\n[x]abab\n"), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_String_isDoubled_When_AddedToItself() {
+        String test = """
+                make s = "ab";
+                s.add("c");
+                s.add(s);
+                print(s);
+                """;
+
+        run(test);
+        assertEquals("abcabc" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_String_equalsLiteral_When_BuiltByAddInsideList() {
+        String test = """
+                make s = "a";
+                s.add("b");
+                print([s] == ["ab"], ["ab"] == [s], [[s], 1] == [["ab"], 1], [s] != ["ba"]);
+                """;
+
+        run(test);
+        assertEquals("truetruetruetrue" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_String_growsInLinearTime_When_AddIsCalledInLoop() {
+        String test = """
+                make report = "";
+                for 0..300000 {
+                    report.add("a");
+                }
+                print(len(report), report.last());
+                """;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> run(test));
+        assertEquals("300000a" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_NumericList_widens_When_NonNumberIsStored() {
+        String test = """
+                make a = [1, 2, 3];
+                make b = a;
+                a[0] = a[1] + a[2];
+                a[1] = "two";
+                b.add(true);
+                b.remove(2);
+                print(a, b, a[0] * 2);
+                """;
+
+        run(test);
+        assertEquals("[5, two, 3][5, two, 3, true]10" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_String_isWalkedCharacterByCharacter_When_UsedInForIn() {
+        String test = """
+                make word = "tea";
+                word.add("!");
+                make count = 0;
+                for c in word {
+                    if (c == "a") {
+                        count = count + 1;
+                    }
+                    print(c);
+                }
+                print(count);
+                """;
+
+        run(test);
+        assertEquals(sanitize("t\ne\na\n!\n1\n"), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_Range_isAValue_When_AssignedToVariable() {
+        String test = """
+                make r = 0..=4;
+                func total(range) {
+                    make sum = 0;
+                    for x in range {
+                        sum = sum + x;
+                    }
+                    return sum;
+                }
+                make big = 0..1000000000;
+                print(total(r), len(r), r[2], r, len(big), big[999999999], 3..1);
+                """;
+
+        run(test);
+        assertEquals("1052[0, 1, 2, 3, 4]1000000000999999999[]" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_Range_isCopiedIntoList_When_ElementIsAssigned() {
+        String test = """
+                make r = 0..5;
+                make before = r;
+                r[1] = 7;
+                r[6] = 9;
+                r.add(1);
+                print(r, before);
+                make nested = [0..2];
+                nested[0][1] = 5;
+                """;
+
+        run(test);
+        assertEquals("[0, 7, 2, 3, 4, null, 9, 1][0, 1, 2, 3, 4]" + System.lineSeparator(), outputStream.toString());
+        assertTrue(errStream.toString().contains("can't set an element of a range, copy it into a list first"));
+        assertTrue(errStream.toString().contains("nested[0][1] = 5;"));
+    }
+
     public static String sanitize(String s){
         return s.replace("\r\n", "\n").replace("\r", "\n");
     }
@@ -0,0 +1,125 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nlang.Main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nlang.lexer.IterableTests.sanitize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class LexerTests {
+
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream errStream = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void setUp() {
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errStream));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    /**
+     * Reader handing out one character per read, so every token is split across reads.
+     */
+    private static Reader trickling(String source) {
+        return new StringReader(source) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+    }
+
+    private static String describe(List<Token> tokens) {
+        StringBuilder description = new StringBuilder();
+        for (Token token : tokens) {
+            description.append(token.type).append(' ').append(token.value).append(' ').append(token.line)
+                    .append(':').append(token.start).append('-').append(token.end).append('\n');
+        }
+        return description.toString();
+    }
+
+    @Test
+    void test_ReaderIsLexedLikeString() {
+        String source = """
+                make s = "%s";
+                // comment
+                for 0..=3 : k {
+                    print(s, 1.5, k != 2 and true);
+                }
+                """.formatted("x".repeat(20_000));
+
+        String expected = describe(new Lexer(source).tokenize());
+        assertEquals(expected, describe(new Lexer(trickling(source)).tokenize()));
+        assertTrue(expected.contains("x".repeat(20_000)));
+    }
+
+    @Test
+    void test_KeywordsAreMatchedAndNamesShared() {
+        TokenBuffer tokens = new Lexer("make count = count + iffy; pfor fo in outer or i {}").tokenize();
+
+        assertEquals(List.of(Token.TokenType.MAKE, Token.TokenType.IDENTIFIER, Token.TokenType.ASSIGN,
+                Token.TokenType.IDENTIFIER, Token.TokenType.PLUS, Token.TokenType.IDENTIFIER,
+                Token.TokenType.SEMICOLON, Token.TokenType.PFOR, Token.TokenType.IDENTIFIER, Token.TokenType.IN,
+                Token.TokenType.IDENTIFIER, Token.TokenType.OR, Token.TokenType.IDENTIFIER,
+                Token.TokenType.LBRACE, Token.TokenType.RBRACE, Token.TokenType.EOF),
+                tokens.stream().map(token -> token.type).toList());
+        assertEquals("count", tokens.value(1));
+        assertSame(tokens.value(1), tokens.value(3));
+        assertEquals("iffy", tokens.value(5));
+        assertEquals("outer", tokens.value(10));
+    }
+
+    @Test
+    void test_LargeFileIsParsedWhileRead() throws IOException {
+        StringBuilder program = new StringBuilder("make total = 0;\n");
+        for (int i = 0; i < 20_000; i++) {
+            program.append("total = total + 1;\n");
+        }
+        program.append("print(total);\n");
+        Path source = Files.writeString(directory.resolve("large.o"), program);
+        Main.main(new String[]{source.toString()});
+        assertEquals(sanitize("20000\n"), sanitize(outputStream.toString()));
+
+        Files.writeString(source, program.append("make b = [1, 2;\n"));
+        Main.main(new String[]{source.toString()});
+        assertTrue(errStream.toString().contains("make b = [1, 2;"));
+        assertTrue(errStream.toString().contains("Expecting ] for array"));
+    }
+
+    @Test
+    void test_ErrorsAreReportedInSourceOrder_When_LexerScansAhead() throws IOException {
+        Path source = Files.writeString(directory.resolve("errors.o"), """
+                make b = [1, 2;
+                make c = 3 ^ 4;
+                """);
+        Main.main(new String[]{source.toString()});
+        assertTrue(errStream.toString().contains("Expecting ] for array"));
+        assertFalse(errStream.toString().contains("Unexpected character"));
+    }
+}
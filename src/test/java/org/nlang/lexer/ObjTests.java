@@ -144,5 +144,21 @@ class ObjTests {
         }
     }
 
+    @Test
+    void test_FieldAccessSeesEveryShape_When_ObjectsHaveDifferentFields() {
+        String test = """
+                func price(item) {
+                    return item.price + item["price"];
+                }
+                make a = { "price": 1 };
+                make b = { "name": "b", "price": 2 };
+                make c = { "price": 3 };
+                c["name"] = "c";
+                print(price(a), price(b), price(c), price(a));
+                """;
+
+        run(test);
+        assertEquals(sanitize("2462\n"), sanitize(outputStream.toString()));
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nlang.Main;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.Environment;
+import org.nlang.parser.Optimizer;
+import org.nlang.parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nlang.lexer.IterableTests.sanitize;
+
+class OptimizerTests {
+
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream errStream = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    private Environment environment;
+
+    @BeforeEach
+    public void setUp() {
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errStream));
+        environment = new Environment();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    private void run(String code) {
+        Main.processInput(code, environment);
+    }
+
+    private List<ASTNode> optimize(String code, Optimizer optimizer) {
+        return optimizer.optimize(new Parser(new Lexer(code.stripTrailing()).tokenize()).parse());
+    }
+
+    @Test
+    void test_ConstantExpressionsAreFolded() {
+        String test = """
+                print(2 * 3 + 4, -(1 + 1), 2 * 3 + 4 > 9, !(1 == 2), "a" == "a");
+                """;
+        List<String> visited = new ArrayList<>();
+        Optimizer.Pass recorder = node -> {
+            visited.add(node.getClass().getSimpleName());
+            return node;
+        };
+        optimize(test, new Optimizer(List.of(Optimizer.CONSTANT_FOLDING, recorder)));
+
+        assertEquals(List.of("NumberNode", "NumberNode", "BooleanNode", "BooleanNode", "BooleanNode", "PrintNode"),
+                visited);
+        run(test);
+        assertEquals(sanitize("10-2truetruetrue\n"), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_BranchesWhichNeverRunAreRemoved() {
+        String test = """
+                if (1 > 2) {
+                    print("never");
+                }
+                {
+                }
+                if (true) {
+                    print("always");
+                }
+                """;
+        List<ASTNode> statements = optimize(test, Optimizer.standard(false));
+
+        assertEquals(1, statements.size());
+        assertEquals("BlockNode", statements.getFirst().getClass().getSimpleName());
+        run(test);
+        assertEquals(sanitize("always\n"), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_AssertsAreOnlyStrippedInProductionMode() {
+        String test = """
+                make a = 1;
+                assert a == 2, "a should be 2";
+                """;
+
+        assertEquals(2, optimize(test, Optimizer.standard(false)).size());
+        assertEquals(1, optimize(test, Optimizer.standard(true)).size());
+    }
+
+    @Test
+    void test_InvalidOperationsAreNotFolded() {
+        String test = """
+                print(1 + "a");
+                """;
+        run(test);
+        assertTrue(errStream.toString().startsWith("Error: "));
+        assertEquals("", outputStream.toString());
+    }
+}
@@ -0,0 +1,131 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nlang.Main;
+import org.nlang.parser.ASTNode;
+import org.nlang.parser.AstCodec;
+import org.nlang.parser.FunctionDefinitionNode;
+import org.nlang.parser.Memo;
+import org.nlang.parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nlang.lexer.IterableTests.sanitize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+class ProgramCacheTests {
+
+    private static final String PROGRAM = """
+            memo(10) func fib(n) {
+                if (n < 2) {
+                    return n;
+                }
+                return fib(n - 1) + fib(n - 2);
+            }
+            make words = ["tea", "cup"];
+            make matrix = [[1, 2], [3, 4]];
+            matrix[1][0] = -matrix[0][1];
+            make obj = { "name": "nlang", "inner": { "size": len(words) } };
+            make total = 0;
+            pfor 0..=4 : k reduce(total: +) {
+                total = total + k;
+            }
+            for w in words {
+                assert !(w == ""), "empty word";
+                print(i, w, w.reverse());
+            }
+            make r = 2..5;
+            print(fib(15), matrix, obj.inner.size, obj["name"], total, r[1], true and false);
+            """;
+
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream errStream = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void setUp() {
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errStream));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    private String run(Path file) {
+        outputStream.reset();
+        Main.main(new String[]{file.toString()});
+        return sanitize(outputStream.toString());
+    }
+
+    @Test
+    void test_CachedProgramRunsLikeParsedOne() throws IOException {
+        Path source = Files.writeString(directory.resolve("program.o"), PROGRAM);
+        Path cache = directory.resolve("program.nlc");
+        String expected = sanitize("""
+                0teaaet
+                1cuppuc
+                610[[1, 2], [-2, 4]]2nlang103false
+                """);
+
+        assertEquals(expected, run(source));
+        assertTrue(Files.exists(cache));
+        byte[] written = Files.readAllBytes(cache);
+
+        assertEquals(expected, run(source));
+        assertArrayEquals(written, Files.readAllBytes(cache));
+        assertEquals("", errStream.toString());
+    }
+
+    @Test
+    void test_CacheIsReplacedWhenSourceChanges() throws IOException {
+        Path source = Files.writeString(directory.resolve("program.o"), "print(1 + 1);");
+        Path cache = directory.resolve("program.nlc");
+        assertEquals(sanitize("2\n"), run(source));
+        byte[] written = Files.readAllBytes(cache);
+
+        Files.writeString(source, "print(2 + 2);");
+        assertEquals(sanitize("4\n"), run(source));
+        assertFalse(Arrays.equals(written, Files.readAllBytes(cache)));
+
+        Files.write(cache, Arrays.copyOf(Files.readAllBytes(cache), 50));
+        assertEquals(sanitize("4\n"), run(source));
+    }
+
+    @Test
+    void test_MemoWithoutSizeIsStoredWithoutTheDefault() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AstCodec.write(new Parser(new Lexer("""
+                memo func f(n) { return n; }
+                memo(3) func g(n) { return n; }
+                """)).parse(), new DataOutputStream(bytes));
+        List<ASTNode> statements = AstCodec.read(ByteBuffer.wrap(bytes.toByteArray()));
+
+        Memo unsized = ((FunctionDefinitionNode) statements.get(0)).memo();
+        Memo sized = ((FunctionDefinitionNode) statements.get(1)).memo();
+        assertEquals(Memo.DEFAULT, unsized.declaredCapacity());
+        assertEquals(Memo.DEFAULT_CAPACITY, unsized.capacity());
+        assertEquals(3, sized.declaredCapacity());
+        assertEquals(3, sized.capacity());
+    }
+}
@@ -105,4 +105,84 @@ class VariableScopeTests {
 
     }
 
+    @Test
+    void test_FunctionsSeeVariablesWhereTheyAreDefined() {
+        String test = """
+                make a = 1;
+                func show() {
+                    print(a);
+                }
+                {
+                    make a = 2;
+                    show();
+                }
+                """;
+
+        run(test);
+        String expected = """
+                1
+                """;
+        assertEquals(sanitize(expected), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_FunctionsCanNotSeeLocalsOfTheCaller() {
+        String test = """
+                func show() {
+                    print(b);
+                }
+                {
+                    make b = 2;
+                    show();
+                }
+                """;
+
+        run(test);
+        assertEquals("", outputStream.toString());
+        assertEquals(sanitize("Error: Undefined variable: b at line 2:11"),
+                sanitize(errStream.toString().lines().toList().getLast()));
+    }
+
+    @Test
+    void test_UndefinedVariableIsReportedBeforeRunning() {
+        String test = """
+                make flag = false;
+                print(1);
+                if (flag) {
+                    print(c);
+                }
+                """;
+
+        run(test);
+        assertEquals("", outputStream.toString());
+        assertEquals(sanitize("Error: Undefined variable: c at line 4:11"),
+                sanitize(errStream.toString().lines().toList().getLast()));
+    }
+
+    @Test
+    void test_DeclarationInitializerSeesOuterVariable() {
+        String test = """
+                make a = 2;
+                {
+                    make a = a + 1;
+                    a = a * 2;
+                    print(a);
+                }
+                print(a);
+                for 0..2 {
+                    make a = i;
+                    print(a);
+                }
+                """;
+
+        run(test);
+        String expected = """
+                6
+                2
+                0
+                1
+                """;
+        assertEquals(sanitize(expected), sanitize(outputStream.toString()));
+    }
+
 }
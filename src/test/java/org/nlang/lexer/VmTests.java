@@ -0,0 +1,123 @@
+package org.nlang.lexer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nlang.parser.Environment;
+import org.nlang.parser.Parser;
+import org.nlang.vm.Compiler;
+import org.nlang.vm.FunctionProto;
+import org.nlang.vm.VM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nlang.lexer.IterableTests.sanitize;
+
+class VmTests {
+
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream errStream = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    private Environment environment;
+
+    @BeforeEach
+    public void setUp() {
+        System.setOut(new PrintStream(outputStream));
+        System.setErr(new PrintStream(errStream));
+        environment = new Environment();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    private FunctionProto compile(String code) {
+        return Compiler.compile(new Parser(new Lexer(code.stripTrailing()).tokenize()).parse());
+    }
+
+    private void run(String code) {
+        VM.execute(compile(code), environment);
+    }
+
+    @Test
+    void test_LocalsUseSlotsAndGlobalsUseNames() {
+        String listing = compile("""
+                make a = 1;
+                {
+                    make b = a;
+                    print(b);
+                }
+                """).disassemble();
+        assertTrue(listing.contains("DEFINE_GLOBAL"), listing);
+        assertTrue(listing.contains("GET_GLOBAL"), listing);
+        assertTrue(listing.contains("GET_LOCAL"), listing);
+    }
+
+    @Test
+    void test_ReturnInsideLoopLeavesFunction() {
+        run("""
+                func find(items, value){
+                    for x in items {
+                        if(x == value){
+                            return i;
+                        }
+                    }
+                    return -1;
+                }
+                print(find([4,5,6], 5));
+                print(find([4,5,6], 7));
+                """);
+        assertEquals(sanitize("""
+                1
+                -1
+                """), sanitize(outputStream.toString()));
+    }
+
+    @Test
+    void test_FunctionInsideBlockSeesEnclosingLocals() {
+        run("""
+                func outer(n){
+                    make offset = 10;
+                    {
+                        func inner(x){
+                            return x + offset + n;
+                        }
+                        print(inner(1));
+                    }
+                }
+                outer(100);
+                """);
+        assertEquals("111" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_DeepRecursionDoesNotUseJavaStack() {
+        run("""
+                func count(n){
+                    if(n<1){
+                        return 0;
+                    }
+                    return 1 + count(n-1);
+                }
+                print(count(50000));
+                """);
+        assertEquals("50000" + System.lineSeparator(), outputStream.toString());
+    }
+
+    @Test
+    void test_FunctionsDefinedOnVmAreCallableFromInterpreter() {
+        run("""
+                func square(x){
+                    return x*x;
+                }
+                """);
+        org.nlang.Main.processInput("print(square(7));", environment);
+        assertEquals("49" + System.lineSeparator(), outputStream.toString());
+    }
+}